@@ -1,4 +1,4 @@
--- Some recommended indices
+-- Some recommended indices. Indices on the medcit_* tables are also chosen during analysis (see medline_index) and created after parsing when CREATE_INDICES = true
 CREATE INDEX idx_medcit_meshheadinglist_meshheading_descriptorname_ui ON medcit_meshheadinglist_meshheading (descriptorname_ui);
 CREATE INDEX idx_medcit_supplmeshlist_supplmeshname_ui ON medcit_supplmeshlist_supplmeshname (ui);
 CREATE INDEX idx_mesh_term_ui ON mesh_term (ui);
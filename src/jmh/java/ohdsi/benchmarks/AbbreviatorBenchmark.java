@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.benchmarks;
+
+import ohdsi.medlineXmlToDatabase.Abbreviator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Abbreviating the table and field names, which the parser does for every field of every row
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AbbreviatorBenchmark {
+
+    private final String[] names = {"MedlineCitation", "MedlineCitation_Article_AuthorList_Author", "Article_Journal_JournalIssue_PubDate_Year",
+            "AffiliationInfo_Affiliation", "MedlineCitation_MeshHeadingList_MeshHeading", "DescriptorName_UI", "PMID_Version",
+            "Article_Abstract_AbstractText", "MedlineCitation_Article_GrantList_Grant", "Investigator_LastName"};
+
+    @Benchmark
+    public void abbreviate(Blackhole blackhole) {
+        for (String name : names)
+            blackhole.consume(Abbreviator.abbreviate(name));
+    }
+}
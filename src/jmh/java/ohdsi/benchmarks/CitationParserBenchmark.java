@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.benchmarks;
+
+import ohdsi.databases.ConnectionWrapper;
+import ohdsi.medlineXmlToDatabase.MedlineCitationParser;
+import ohdsi.medlineXmlToDatabase.PmidToDate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.dom4j.Node;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing citations into rows and inserting them, as MedlineParserMain does for update files: citations that are already in the database are deleted
+ * first. Batches are flushed every 100 citations, so the score includes the inserts into an in-memory H2 database.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CitationParserBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    private ConnectionWrapper connectionWrapper;
+    private MedlineCitationParser medlineCitationParser;
+    private PmidToDate pmidToDate;
+    private List<Node> citations;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Enough distinct PMIDs that a batch never contains the same citation twice:
+        String xml = Fixtures.createPubmedXml(200);
+        connectionWrapper = Fixtures.createDatabase("parser", xml);
+        medlineCitationParser = new MedlineCitationParser(connectionWrapper, Fixtures.SCHEMA);
+        pmidToDate = new PmidToDate(connectionWrapper);
+        citations = Fixtures.parseDom4j(xml).selectNodes("/PubmedArticleSet/PubmedArticle/MedlineCitation");
+        connectionWrapper.setBatchMode(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        connectionWrapper.setBatchMode(false);
+        connectionWrapper.close();
+    }
+
+    @Benchmark
+    public void parseAndInsert() {
+        Node citation = citations.get(next % citations.size());
+        medlineCitationParser.parseAndInjectIntoDB(citation, true);
+        pmidToDate.insertDates(citation, true);
+        if (++next % BATCH_SIZE == 0) {
+            connectionWrapper.setBatchMode(false);
+            medlineCitationParser.commit();
+            connectionWrapper.setBatchMode(true);
+        }
+    }
+}
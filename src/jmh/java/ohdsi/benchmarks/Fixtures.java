@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.benchmarks;
+
+import ohdsi.databases.ConnectionWrapper;
+import ohdsi.databases.DbType;
+import ohdsi.medlineXmlToDatabase.MedlineCitationAnalyser;
+import ohdsi.medlineXmlToDatabase.PmidToDate;
+import org.dom4j.DocumentException;
+import org.dom4j.io.SAXReader;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Fixtures shared by the benchmarks. Citations are copies of a few representative PubmedArticles (structured abstract, author lists with
+ * affiliations, grants, MeSH headings, CommentsCorrections, MedlineDate) with distinct PMIDs.
+ */
+public class Fixtures {
+
+    public static final String SCHEMA = "medline";
+    private static final String PUBMED_SAMPLE = "/fixtures/pubmed_sample.xml";
+    private static final Pattern PMID_PATTERN = Pattern.compile("(<PMID Version=\"\\d+\">)(\\d+)(</PMID>)");
+
+    public static String createPubmedXml(int copies) {
+        String sample = readResource(PUBMED_SAMPLE);
+        int start = sample.indexOf("<PubmedArticle>");
+        int end = sample.lastIndexOf("</PubmedArticleSet>");
+        String articles = sample.substring(start, end);
+        StringBuilder xml = new StringBuilder(sample.substring(0, start));
+        for (int copy = 0; copy < copies; copy++) {
+            Matcher matcher = PMID_PATTERN.matcher(articles);
+            StringBuilder shifted = new StringBuilder();
+            while (matcher.find())
+                matcher.appendReplacement(shifted, matcher.group(1) + (Long.parseLong(matcher.group(2)) + copy) + matcher.group(3));
+            matcher.appendTail(shifted);
+            xml.append(shifted);
+        }
+        xml.append("</PubmedArticleSet>\n");
+        return xml.toString();
+    }
+
+    public static org.dom4j.Document parseDom4j(String xml) {
+        try {
+            return new SAXReader().read(new StringReader(xml));
+        } catch (DocumentException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static org.w3c.dom.Document parseW3c(String xml) {
+        try {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+        } catch (SAXException | IOException | ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Creates an in-memory H2 database with the tables the analyser derives from the sample citations
+     */
+    public static ConnectionWrapper createDatabase(String name, String xml) {
+        MedlineCitationAnalyser analyser = new MedlineCitationAnalyser();
+        NodeList citations = parseW3c(xml).getElementsByTagName("MedlineCitation");
+        for (int i = 0; i < citations.getLength(); i++)
+            analyser.analyse(citations.item(i));
+        analyser.finish();
+
+        ConnectionWrapper connectionWrapper = new ConnectionWrapper("mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "", DbType.H2);
+        connectionWrapper.createDatabase(SCHEMA);
+        connectionWrapper.use(SCHEMA);
+        analyser.createTables(connectionWrapper, false, false, 0);
+        PmidToDate.createTable(connectionWrapper, 0);
+        return connectionWrapper;
+    }
+
+    /**
+     * Writes a gzipped MeSH descriptor file with the given number of descriptors, spread over a tree of depth 3
+     */
+    public static Path createMeshDescriptorFile(int count) {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\"?>\n<DescriptorRecordSet LanguageCode=\"eng\">\n");
+        for (int i = 0; i < count; i++) {
+            String ui = String.format("D%06d", i + 1);
+            String treeNumber = String.format("C%02d.%03d.%03d", i % 20, (i / 20) % 100, i / 2000);
+            xml.append("<DescriptorRecord DescriptorClass=\"1\">\n");
+            xml.append("<DescriptorUI>").append(ui).append("</DescriptorUI>\n");
+            xml.append("<DescriptorName><String>Descriptor ").append(i + 1).append("</String></DescriptorName>\n");
+            xml.append("<DateCreated><Year>1999</Year><Month>01</Month><Day>01</Day></DateCreated>\n");
+            if (i % 10 == 0)
+                xml.append("<PharmacologicalActionList><PharmacologicalAction><DescriptorReferredTo><DescriptorUI>D000001</DescriptorUI>"
+                        + "<DescriptorName><String>Descriptor 1</String></DescriptorName></DescriptorReferredTo></PharmacologicalAction>"
+                        + "</PharmacologicalActionList>\n");
+            xml.append("<TreeNumberList><TreeNumber>").append(treeNumber).append("</TreeNumber>");
+            if (i % 5 == 0)
+                xml.append("<TreeNumber>").append(treeNumber.replace('C', 'D')).append("</TreeNumber>");
+            xml.append("</TreeNumberList>\n");
+            xml.append("<ConceptList><Concept PreferredConceptYN=\"Y\"><ConceptUI>M").append(ui.substring(1)).append("</ConceptUI>");
+            xml.append("<ConceptName><String>Descriptor ").append(i + 1).append("</String></ConceptName>");
+            xml.append("<ScopeNote>A representative scope note that the parser skips, describing descriptor ").append(i + 1).append(".</ScopeNote>");
+            xml.append("<TermList><Term ConceptPreferredTermYN=\"Y\" IsPermutedTermYN=\"N\" LexicalTag=\"NON\" RecordPreferredTermYN=\"Y\">");
+            xml.append("<TermUI>T").append(ui.substring(1)).append("</TermUI><String>Descriptor ").append(i + 1).append("</String></Term>");
+            xml.append("</TermList></Concept></ConceptList>\n</DescriptorRecord>\n");
+        }
+        xml.append("</DescriptorRecordSet>\n");
+        try {
+            Path path = Files.createTempFile("desc", ".gz");
+            path.toFile().deleteOnExit();
+            try (GZIPOutputStream out = new GZIPOutputStream(Files.newOutputStream(path))) {
+                out.write(xml.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            return path;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String readResource(String name) {
+        try (InputStream in = Fixtures.class.getResourceAsStream(name)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            in.transferTo(out);
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.benchmarks;
+
+import ohdsi.databases.ConnectionWrapper;
+import ohdsi.medlineXmlToDatabase.Abbreviator;
+import ohdsi.medlineXmlToDatabase.CitationListener;
+import ohdsi.medlineXmlToDatabase.MedlineCitationParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.dom4j.Node;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the INSERT statements for the rows of the sample citations, without executing them
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InsertSqlBenchmark {
+
+    private final List<String> tables = new ArrayList<>();
+    private final List<Map<String, String>> rows = new ArrayList<>();
+    private ConnectionWrapper connectionWrapper;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String xml = Fixtures.createPubmedXml(1);
+        connectionWrapper = Fixtures.createDatabase("insertsql", xml);
+        MedlineCitationParser parser = new MedlineCitationParser(connectionWrapper, Fixtures.SCHEMA);
+        parser.addListener(new CitationListener() {
+            @Override
+            public void row(String table, Map<String, String> field2Value) {
+                Map<String, String> row = new LinkedHashMap<>();
+                field2Value.forEach((field, value) -> row.put(Abbreviator.abbreviate(field), value));
+                tables.add(Abbreviator.abbreviate(table));
+                rows.add(row);
+            }
+
+            @Override
+            public void deleteCitation(String pmid, String pmidVersion) {
+            }
+
+            @Override
+            public void commit() {
+            }
+
+            @Override
+            public void rollback() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        connectionWrapper.setBatchMode(true);
+        for (Node citation : Fixtures.parseDom4j(xml).selectNodes("/PubmedArticleSet/PubmedArticle/MedlineCitation"))
+            parser.parseAndInjectIntoDB(citation, false);
+        connectionWrapper.setBatchMode(false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        connectionWrapper.close();
+    }
+
+    @Benchmark
+    public void getInsertSql(Blackhole blackhole) {
+        for (int i = 0; i < rows.size(); i++)
+            blackhole.consume(connectionWrapper.getInsertSql(tables.get(i), rows.get(i)));
+    }
+}
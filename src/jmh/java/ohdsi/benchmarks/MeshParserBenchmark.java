@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.benchmarks;
+
+import ohdsi.meshXmlToDatabase.MainMeshParser;
+import ohdsi.utilities.files.Row;
+import ohdsi.utilities.files.RowWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a gzipped MeSH descriptor file, with the rows written to a blackhole
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MeshParserBenchmark {
+
+    private static final int DESCRIPTORS = 5000;
+
+    private Path descriptorFile;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        descriptorFile = Fixtures.createMeshDescriptorFile(DESCRIPTORS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(descriptorFile);
+    }
+
+    @Benchmark
+    public Map<String, String> parseDescriptors(Blackhole blackhole) {
+        RowWriter writer = new RowWriter() {
+            @Override
+            public void write(Row row) {
+                blackhole.consume(row);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Map<String, String> treeNumberToUi = new HashMap<>();
+        MainMeshParser.parse(descriptorFile.toString(), writer, writer, treeNumberToUi);
+        return treeNumberToUi;
+    }
+}
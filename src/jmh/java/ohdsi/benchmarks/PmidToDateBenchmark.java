@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.benchmarks;
+
+import ohdsi.medlineXmlToDatabase.PmidToDate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deriving the publication date from the different combinations of date fields found in MEDLINE
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PmidToDateBenchmark {
+
+    // Article year, month, day, publication year, month, day, MedlineDate:
+    private final String[][] dates = {
+            {"2019", "08", "23", "2019", "Oct", null, null},
+            {null, null, null, "2019", "Oct", null, null},
+            {null, null, null, "2004", "Feb", "15", null},
+            {null, null, null, null, null, null, "1998 Dec-1999 Jan"},
+            {null, null, null, null, null, null, "Summer 2005"},
+            {null, null, null, "2022", null, null, null}};
+
+    @Benchmark
+    public void deriveEpochDay(Blackhole blackhole) {
+        for (String[] date : dates)
+            blackhole.consume(PmidToDate.deriveEpochDay(date[0], date[1], date[2], date[3], date[4], date[5], date[6]));
+    }
+}
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.corpusGenerator;
+
+import ohdsi.utilities.files.IniFile;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+
+/**
+ * Generates a synthetic corpus for load and scale testing: a baseline folder, an updates folder and a MeSH folder, which can be used as XML_FOLDER and
+ * MESH_XML_FOLDER. The output only depends on the settings, so the same seed always gives the same files.
+ */
+public class CorpusGeneratorMain {
+
+    private static final Logger log = LogManager.getLogger(CorpusGeneratorMain.class.getName());
+
+    public static void main(String[] args) {
+        IniFile iniFile = new IniFile(args[0]);
+        generate(iniFile, new File(iniFile.get("GENERATOR_FOLDER")));
+        log.info("Done!");
+    }
+
+    /**
+     * Generates a corpus in the given folder using the GENERATOR_* settings of the ini file
+     */
+    public static void generate(IniFile iniFile, File folder) {
+        generate(folder, Long.parseLong(get(iniFile, "GENERATOR_SEED", "0")), Integer.parseInt(get(iniFile, "GENERATOR_CITATIONS", "30000")),
+                Integer.parseInt(get(iniFile, "GENERATOR_CITATIONS_PER_FILE", "30000")), Integer.parseInt(get(iniFile, "GENERATOR_UPDATE_FILES", "0")),
+                Integer.parseInt(get(iniFile, "GENERATOR_UPDATE_CITATIONS", "3000")), Double.parseDouble(get(iniFile, "GENERATOR_REVISION_RATIO", "0.3")),
+                Double.parseDouble(get(iniFile, "GENERATOR_DELETE_RATIO", "0.01")), Integer.parseInt(get(iniFile, "GENERATOR_MESH_DESCRIPTORS", "30000")),
+                Integer.parseInt(get(iniFile, "GENERATOR_MESH_SUPPLEMENTALS", "30000")));
+    }
+
+    /**
+     * Writes the baseline files to folder/baseline, the update files to folder/updates and the MeSH files to folder/mesh
+     */
+    public static void generate(File folder, long seed, int citations, int citationsPerFile, int updateFiles, int updateCitations,
+                                double revisionRatio, double deleteRatio, int descriptors, int supplementals) {
+        File baselineFolder = createFolder(folder, "baseline");
+        File updatesFolder = createFolder(folder, "updates");
+        File meshFolder = createFolder(folder, "mesh");
+        log.info("Generating {} baseline citations and {} update files with seed {}", citations, updateFiles, seed);
+        MedlineCorpusGenerator medlineGenerator = new MedlineCorpusGenerator(seed, descriptors);
+        medlineGenerator.writeBaseline(baselineFolder, citations, citationsPerFile);
+        for (int i = 0; i < updateFiles; i++)
+            medlineGenerator.writeUpdate(updatesFolder, updateCitations, revisionRatio, deleteRatio);
+        MeshCorpusGenerator meshGenerator = new MeshCorpusGenerator(seed, descriptors);
+        meshGenerator.writeDescriptors(new File(meshFolder, "desc0000.gz"));
+        meshGenerator.writeSupplementals(new File(meshFolder, "supp0000.gz"), supplementals);
+    }
+
+    private static File createFolder(File parent, String name) {
+        File folder = new File(parent, name);
+        if (!folder.exists() && !folder.mkdirs())
+            throw new RuntimeException("Could not create folder " + folder);
+        return folder;
+    }
+
+    private static String get(IniFile iniFile, String key, String defaultValue) {
+        String value = iniFile.get(key);
+        return value.isEmpty() ? defaultValue : value;
+    }
+}
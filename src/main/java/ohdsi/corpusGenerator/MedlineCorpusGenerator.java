@@ -0,0 +1,398 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.corpusGenerator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Writes synthetic PubmedArticleSet files with the structure of the real MEDLINE files: structured and unstructured abstracts, author lists with
+ * affiliations, grants, CommentsCorrections, MeSH headings with qualifiers, keywords and the different forms of publication dates. The content of a
+ * citation only depends on the seed, its PMID and the file it appears in, so the output is deterministic.
+ * <p>
+ * Baseline files contain consecutive new PMIDs. Update files contain a mix of new citations and revisions of existing ones, followed by DeleteCitation
+ * blocks for removed citations.
+ */
+public class MedlineCorpusGenerator {
+
+    private static final Logger log = LogManager.getLogger(MedlineCorpusGenerator.class.getName());
+    private static final int JOURNALS = 500;
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+    private static final String[] SEASONS = {"Spring", "Summer", "Fall", "Winter"};
+    private static final String[] SECTIONS = {"BACKGROUND", "OBJECTIVE", "METHODS", "RESULTS", "CONCLUSIONS"};
+    private static final String[] LANGUAGES = {"ger", "fre", "spa", "jpn", "chi", "rus"};
+    private static final String[] COUNTRIES = {"United States", "England", "Netherlands", "Germany", "Japan", "China", "France", "Canada"};
+    private static final String[] LAST_NAMES = {"Smith", "Jansen", "M\u00fcller", "Wang", "Garcia", "Tanaka", "Kim", "Rossi", "Dubois", "Nowak", "Silva",
+            "Johnson", "de Vries", "Li", "Brown", "Schmidt", "Nguyen", "Ivanova", "O'Brien", "Andersson"};
+    private static final String[] FORE_NAMES = {"Anna", "Peter", "Maria", "Wei", "Jan", "Yuki", "Carlos", "Sophie", "Ahmed", "Elena", "John", "Li",
+            "Martijn", "Fatima", "Lars", "Priya"};
+    private static final String[] AGENCIES = {"NLM NIH HHS", "NCI NIH HHS", "NHLBI NIH HHS", "Wellcome Trust", "Medical Research Council",
+            "European Research Council"};
+    private static final String[] REF_TYPES = {"CommentIn", "CommentOn", "ErratumIn", "ErratumFor", "Cites", "UpdateOf", "RetractionIn"};
+    private static final String[][] QUALIFIERS = {{"Q000009", "adverse effects"}, {"Q000097", "blood"}, {"Q000175", "diagnosis"},
+            {"Q000188", "drug therapy"}, {"Q000235", "genetics"}, {"Q000378", "metabolism"}, {"Q000379", "methods"}, {"Q000401", "mortality"},
+            {"Q000453", "epidemiology"}, {"Q000473", "pathology"}, {"Q000627", "therapeutic use"}, {"Q000628", "therapy"}};
+    private static final String[][] PUBLICATION_TYPES = {{"D016428", "Journal Article"}, {"D016449", "Randomized Controlled Trial"},
+            {"D016454", "Review"}, {"D052061", "Research Support, N.I.H., Extramural"}, {"D013485", "Research Support, Non-U.S. Gov't"}};
+
+    private final long seed;
+    private final int descriptors;
+    private final String[][] journals = new String[JOURNALS][];
+    private final BitSet deleted = new BitSet();
+    private int maxPmid = 0;
+    private int fileNumber = 0;
+
+    /**
+     * @param descriptors the number of descriptors in the generated MeSH files, so MeSH headings refer to existing descriptors
+     */
+    public MedlineCorpusGenerator(long seed, int descriptors) {
+        this.seed = seed;
+        this.descriptors = descriptors;
+        for (int i = 0; i < JOURNALS; i++) {
+            Random random = new Random(SyntheticText.mix(seed, 'J', i));
+            String subject = SyntheticText.word(random);
+            String title = "Journal of " + subject + " and " + SyntheticText.word(random) + " " + SyntheticText.word(random);
+            String issn = String.format("%04d-%04d", random.nextInt(10000), random.nextInt(10000));
+            String abbreviation = "J " + SyntheticText.capitalize(subject.substring(0, Math.min(4, subject.length()))) + " " + (i + 1);
+            journals[i] = new String[]{title, issn, abbreviation, Integer.toString(100000000 + i), COUNTRIES[random.nextInt(COUNTRIES.length)]};
+        }
+    }
+
+    /**
+     * Writes baseline files with consecutive new PMIDs
+     *
+     * @return the files that were written
+     */
+    public List<File> writeBaseline(File folder, int citations, int citationsPerFile) {
+        List<File> files = new ArrayList<>();
+        for (int start = 0; start < citations; start += citationsPerFile) {
+            List<Integer> pmids = new ArrayList<>();
+            for (int i = start; i < Math.min(citations, start + citationsPerFile); i++)
+                pmids.add(++maxPmid);
+            files.add(writeFile(folder, pmids, List.of()));
+        }
+        return files;
+    }
+
+    /**
+     * Writes an update file. The given fraction of citations are revisions of existing citations, the others are new. In addition, the given fraction
+     * of the number of citations is deleted.
+     */
+    public File writeUpdate(File folder, int citations, double revisionRatio, double deleteRatio) {
+        Random random = new Random(SyntheticText.mix(seed, 'U', fileNumber + 1));
+        int revisions = (int) Math.round(citations * revisionRatio);
+        Set<Integer> pmids = new LinkedHashSet<>();
+        pickExisting(random, revisions, pmids);
+        for (int i = revisions; i < citations; i++)
+            pmids.add(++maxPmid);
+        Set<Integer> toDelete = new LinkedHashSet<>(pmids);
+        pickExisting(random, (int) Math.round(citations * deleteRatio), toDelete);
+        toDelete.removeAll(pmids);
+        for (int pmid : toDelete)
+            deleted.set(pmid);
+        return writeFile(folder, new ArrayList<>(pmids), new ArrayList<>(toDelete));
+    }
+
+    private void pickExisting(Random random, int count, Set<Integer> pmids) {
+        int target = pmids.size() + count;
+        for (int attempt = 0; pmids.size() < target && attempt < count * 10; attempt++) {
+            int pmid = 1 + random.nextInt(maxPmid);
+            if (!deleted.get(pmid))
+                pmids.add(pmid);
+        }
+    }
+
+    private File writeFile(File folder, List<Integer> pmids, List<Integer> toDelete) {
+        fileNumber++;
+        File file = new File(folder, String.format("pubmed00n%04d.xml.gz", fileNumber));
+        log.info("Writing {} citations and {} deletions to {}", pmids.size(), toDelete.size(), file.getName());
+        try (SyntheticXmlWriter out = new SyntheticXmlWriter(file)) {
+            XMLStreamWriter writer = out.getWriter();
+            writer.writeStartElement("PubmedArticleSet");
+            out.newLine();
+            for (int pmid : pmids) {
+                writeArticle(out, new Random(SyntheticText.mix(seed, 'C', pmid, fileNumber)), pmid);
+                out.newLine();
+            }
+            for (int pmid : toDelete) {
+                writer.writeStartElement("DeleteCitation");
+                writePmid(out, pmid);
+                writer.writeEndElement();
+                out.newLine();
+            }
+            writer.writeEndElement();
+        } catch (XMLStreamException e) {
+            throw new RuntimeException("Error writing " + file, e);
+        }
+        return file;
+    }
+
+    private void writeArticle(SyntheticXmlWriter out, Random random, int pmid) throws XMLStreamException {
+        XMLStreamWriter writer = out.getWriter();
+        String[] journal = journals[random.nextInt(JOURNALS)];
+        int year = 1950 + random.nextInt(75);
+        boolean inProcess = random.nextInt(10) == 0;
+        String doi = "10." + (1000 + random.nextInt(9000)) + "/" + journal[2].replace(" ", "").toLowerCase() + "." + pmid;
+
+        writer.writeStartElement("PubmedArticle");
+        writer.writeStartElement("MedlineCitation");
+        writer.writeAttribute("Status", inProcess ? "In-Process" : "MEDLINE");
+        writer.writeAttribute("Owner", "NLM");
+        if (random.nextInt(3) == 0)
+            writer.writeAttribute("IndexingMethod", "Automated");
+        writePmid(out, pmid);
+        if (!inProcess)
+            out.date("DateCompleted", year + 1, 1 + random.nextInt(12), 1 + random.nextInt(28));
+        out.date("DateRevised", year + 1 + random.nextInt(5), 1 + random.nextInt(12), 1 + random.nextInt(28));
+
+        writer.writeStartElement("Article");
+        writer.writeAttribute("PubModel", random.nextBoolean() ? "Print" : "Print-Electronic");
+        writeJournal(out, random, journal, year);
+        out.element("ArticleTitle", SyntheticText.sentence(random, 6, 20));
+        writer.writeStartElement("Pagination");
+        int startPage = 1 + random.nextInt(2000);
+        out.element("MedlinePgn", startPage + "-" + (startPage + 1 + random.nextInt(20)));
+        writer.writeEndElement();
+        writer.writeStartElement("ELocationID");
+        writer.writeAttribute("EIdType", "doi");
+        writer.writeAttribute("ValidYN", "Y");
+        writer.writeCharacters(doi);
+        writer.writeEndElement();
+        writeAbstract(out, random);
+        writeAuthors(out, random);
+        out.element("Language", "eng");
+        if (random.nextInt(30) == 0)
+            out.element("Language", LANGUAGES[random.nextInt(LANGUAGES.length)]);
+        if (random.nextInt(3) == 0)
+            writeGrants(out, random);
+        writer.writeStartElement("PublicationTypeList");
+        for (int i = 0; i < 1 + random.nextInt(3); i++)
+            writeCoded(out, "PublicationType", PUBLICATION_TYPES[i == 0 ? 0 : 1 + random.nextInt(PUBLICATION_TYPES.length - 1)], null);
+        writer.writeEndElement();
+        if (random.nextBoolean()) {
+            writer.writeStartElement("ArticleDate");
+            writer.writeAttribute("DateType", "Electronic");
+            out.dateParts(year, 1 + random.nextInt(12), 1 + random.nextInt(28));
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+
+        writer.writeStartElement("MedlineJournalInfo");
+        out.element("Country", journal[4]);
+        out.element("MedlineTA", journal[2]);
+        out.element("NlmUniqueID", journal[3]);
+        out.element("ISSNLinking", journal[1]);
+        writer.writeEndElement();
+        out.element("CitationSubset", "IM");
+        if (random.nextInt(7) == 0)
+            writeCommentsCorrections(out, random, pmid);
+        if (!inProcess)
+            writeMeshHeadings(out, random);
+        if (random.nextInt(3) == 0) {
+            writer.writeStartElement("KeywordList");
+            writer.writeAttribute("Owner", "NOTNLM");
+            for (int i = 0; i < 2 + random.nextInt(5); i++) {
+                writer.writeStartElement("Keyword");
+                writer.writeAttribute("MajorTopicYN", "N");
+                writer.writeCharacters(SyntheticText.word(random) + " " + SyntheticText.word(random));
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+
+        writer.writeStartElement("PubmedData");
+        out.element("PublicationStatus", "ppublish");
+        writer.writeStartElement("ArticleIdList");
+        writeArticleId(out, "pubmed", Integer.toString(pmid));
+        writeArticleId(out, "doi", doi);
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    private void writePmid(SyntheticXmlWriter out, int pmid) throws XMLStreamException {
+        out.getWriter().writeStartElement("PMID");
+        out.getWriter().writeAttribute("Version", "1");
+        out.getWriter().writeCharacters(Integer.toString(pmid));
+        out.getWriter().writeEndElement();
+    }
+
+    private void writeJournal(SyntheticXmlWriter out, Random random, String[] journal, int year) throws XMLStreamException {
+        XMLStreamWriter writer = out.getWriter();
+        writer.writeStartElement("Journal");
+        writer.writeStartElement("ISSN");
+        writer.writeAttribute("IssnType", "Print");
+        writer.writeCharacters(journal[1]);
+        writer.writeEndElement();
+        writer.writeStartElement("JournalIssue");
+        writer.writeAttribute("CitedMedium", "Print");
+        out.element("Volume", Integer.toString(1 + random.nextInt(200)));
+        if (random.nextInt(4) != 0)
+            out.element("Issue", Integer.toString(1 + random.nextInt(12)));
+        writer.writeStartElement("PubDate");
+        int form = random.nextInt(20);
+        int month = random.nextInt(12);
+        if (form < 2)
+            out.element("MedlineDate", year + " " + MONTHS[month] + "-" + MONTHS[(month + 1) % 12]);
+        else if (form < 3)
+            out.element("MedlineDate", SEASONS[random.nextInt(SEASONS.length)] + " " + year);
+        else {
+            out.element("Year", Integer.toString(year));
+            if (form < 18)
+                out.element("Month", form < 6 ? String.format("%02d", month + 1) : MONTHS[month]);
+            if (form < 8)
+                out.element("Day", Integer.toString(1 + random.nextInt(28)));
+        }
+        writer.writeEndElement();
+        writer.writeEndElement();
+        out.element("Title", journal[0]);
+        out.element("ISOAbbreviation", journal[2]);
+        writer.writeEndElement();
+    }
+
+    private void writeAbstract(SyntheticXmlWriter out, Random random) throws XMLStreamException {
+        XMLStreamWriter writer = out.getWriter();
+        int form = random.nextInt(10);
+        if (form == 0)
+            return;
+        writer.writeStartElement("Abstract");
+        if (form < 5) {
+            for (String section : SECTIONS) {
+                if (section.equals("OBJECTIVE") && random.nextBoolean())
+                    continue;
+                writer.writeStartElement("AbstractText");
+                writer.writeAttribute("Label", section);
+                writer.writeAttribute("NlmCategory", section);
+                writer.writeCharacters(SyntheticText.paragraph(random, 1, 4));
+                writer.writeEndElement();
+            }
+        } else
+            out.element("AbstractText", SyntheticText.paragraph(random, 4, 10));
+        if (random.nextBoolean())
+            out.element("CopyrightInformation", "Copyright \u00a9 " + SyntheticText.capitalize(SyntheticText.word(random)) + " Inc. All rights reserved.");
+        writer.writeEndElement();
+    }
+
+    private void writeAuthors(SyntheticXmlWriter out, Random random) throws XMLStreamException {
+        XMLStreamWriter writer = out.getWriter();
+        int form = random.nextInt(50);
+        if (form == 0)
+            return;
+        int authors = form < 3 ? 30 + random.nextInt(200) : 1 + random.nextInt(10);
+        writer.writeStartElement("AuthorList");
+        writer.writeAttribute("CompleteYN", "Y");
+        for (int i = 0; i < authors; i++) {
+            writer.writeStartElement("Author");
+            writer.writeAttribute("ValidYN", "Y");
+            if (form < 3 && i == 0)
+                out.element("CollectiveName", SyntheticText.capitalize(SyntheticText.word(random)) + " Study Group");
+            else {
+                String foreName = FORE_NAMES[random.nextInt(FORE_NAMES.length)];
+                out.element("LastName", LAST_NAMES[random.nextInt(LAST_NAMES.length)]);
+                out.element("ForeName", foreName);
+                out.element("Initials", foreName.substring(0, 1));
+                if (random.nextInt(5) == 0) {
+                    writer.writeStartElement("Identifier");
+                    writer.writeAttribute("Source", "ORCID");
+                    writer.writeCharacters(String.format("0000-000%d-%04d-%04d", random.nextInt(3), random.nextInt(10000), random.nextInt(10000)));
+                    writer.writeEndElement();
+                }
+                for (int j = random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(2); j > 0; j--) {
+                    writer.writeStartElement("AffiliationInfo");
+                    out.element("Affiliation", "Department of " + SyntheticText.capitalize(SyntheticText.word(random)) + ", University of "
+                            + SyntheticText.capitalize(SyntheticText.word(random)) + ", " + COUNTRIES[random.nextInt(COUNTRIES.length)] + ".");
+                    writer.writeEndElement();
+                }
+            }
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    private void writeGrants(SyntheticXmlWriter out, Random random) throws XMLStreamException {
+        XMLStreamWriter writer = out.getWriter();
+        writer.writeStartElement("GrantList");
+        writer.writeAttribute("CompleteYN", "Y");
+        for (int i = 0; i < 1 + random.nextInt(4); i++) {
+            writer.writeStartElement("Grant");
+            out.element("GrantID", String.format("R%02d %s%06d", random.nextInt(100), "LM", random.nextInt(1000000)));
+            String agency = AGENCIES[random.nextInt(AGENCIES.length)];
+            if (agency.endsWith("NIH HHS"))
+                out.element("Acronym", agency.substring(0, 2));
+            out.element("Agency", agency);
+            out.element("Country", COUNTRIES[random.nextInt(3)]);
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    private void writeCommentsCorrections(SyntheticXmlWriter out, Random random, int pmid) throws XMLStreamException {
+        XMLStreamWriter writer = out.getWriter();
+        writer.writeStartElement("CommentsCorrectionsList");
+        for (int i = 0; i < 1 + random.nextInt(random.nextInt(10) == 0 ? 40 : 3); i++) {
+            writer.writeStartElement("CommentsCorrections");
+            writer.writeAttribute("RefType", REF_TYPES[random.nextInt(REF_TYPES.length)]);
+            String[] journal = journals[random.nextInt(JOURNALS)];
+            out.element("RefSource", journal[2] + ". " + (1950 + random.nextInt(70)) + ";" + (1 + random.nextInt(200)) + ":" + (1 + random.nextInt(999)));
+            writePmid(out, 1 + random.nextInt(Math.max(maxPmid, pmid)));
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    private void writeMeshHeadings(SyntheticXmlWriter out, Random random) throws XMLStreamException {
+        XMLStreamWriter writer = out.getWriter();
+        writer.writeStartElement("MeshHeadingList");
+        for (int i = 0; i < 5 + random.nextInt(16); i++) {
+            int descriptor = 1 + random.nextInt(descriptors);
+            writer.writeStartElement("MeshHeading");
+            writeCoded(out, "DescriptorName", new String[]{SyntheticText.descriptorUi(descriptor), SyntheticText.descriptorName(seed, descriptor)},
+                    random.nextInt(4) == 0 ? "Y" : "N");
+            for (int j = random.nextInt(3); j > 0; j--)
+                writeCoded(out, "QualifierName", QUALIFIERS[random.nextInt(QUALIFIERS.length)], random.nextInt(4) == 0 ? "Y" : "N");
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    private void writeCoded(SyntheticXmlWriter out, String element, String[] uiAndName, String majorTopic) throws XMLStreamException {
+        XMLStreamWriter writer = out.getWriter();
+        writer.writeStartElement(element);
+        writer.writeAttribute("UI", uiAndName[0]);
+        if (majorTopic != null)
+            writer.writeAttribute("MajorTopicYN", majorTopic);
+        writer.writeCharacters(uiAndName[1]);
+        writer.writeEndElement();
+    }
+
+    private void writeArticleId(SyntheticXmlWriter out, String idType, String id) throws XMLStreamException {
+        out.getWriter().writeStartElement("ArticleId");
+        out.getWriter().writeAttribute("IdType", idType);
+        out.getWriter().writeCharacters(id);
+        out.getWriter().writeEndElement();
+    }
+}
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.corpusGenerator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes synthetic MeSH descriptor and supplementary concept files. Descriptors form a random tree below 16 top-level categories. Tree numbers use
+ * 3-digit segments like the real ones, and some descriptors have a second tree number in another branch.
+ */
+public class MeshCorpusGenerator {
+
+    private static final Logger log = LogManager.getLogger(MeshCorpusGenerator.class.getName());
+    private static final String CATEGORIES = "ABCDEFGHIJKLMNVZ";
+    private static final int MAX_CHILDREN = 999;
+
+    private final long seed;
+    private final int descriptors;
+
+    public MeshCorpusGenerator(long seed, int descriptors) {
+        this.seed = seed;
+        this.descriptors = descriptors;
+    }
+
+    public void writeDescriptors(File file) {
+        log.info("Writing {} descriptors to {}", descriptors, file.getName());
+        Random random = new Random(SyntheticText.mix(seed, 'T'));
+        List<String> treeNumbers = new ArrayList<>();
+        List<Integer> childCounts = new ArrayList<>();
+        try (SyntheticXmlWriter out = new SyntheticXmlWriter(file)) {
+            XMLStreamWriter writer = out.getWriter();
+            writer.writeStartElement("DescriptorRecordSet");
+            writer.writeAttribute("LanguageCode", "eng");
+            for (int descriptor = 1; descriptor <= descriptors; descriptor++) {
+                List<String> descriptorTreeNumbers = new ArrayList<>();
+                descriptorTreeNumbers.add(nextTreeNumber(random, treeNumbers, childCounts));
+                if (treeNumbers.size() > 100 && random.nextInt(5) == 0)
+                    descriptorTreeNumbers.add(nextTreeNumber(random, treeNumbers, childCounts));
+                writeDescriptor(out, random, descriptor, descriptorTreeNumbers);
+                out.newLine();
+            }
+            writer.writeEndElement();
+        } catch (XMLStreamException e) {
+            throw new RuntimeException("Error writing " + file, e);
+        }
+    }
+
+    public void writeSupplementals(File file, int supplementals) {
+        log.info("Writing {} supplementary concepts to {}", supplementals, file.getName());
+        try (SyntheticXmlWriter out = new SyntheticXmlWriter(file)) {
+            XMLStreamWriter writer = out.getWriter();
+            writer.writeStartElement("SupplementalRecordSet");
+            writer.writeAttribute("LanguageCode", "eng");
+            for (int supplemental = 1; supplemental <= supplementals; supplemental++) {
+                Random random = new Random(SyntheticText.mix(seed, 'S', supplemental));
+                writer.writeStartElement("SupplementalRecord");
+                writer.writeAttribute("SCRClass", "1");
+                out.element("SupplementalRecordUI", String.format("C%06d", supplemental));
+                writer.writeStartElement("SupplementalRecordName");
+                out.element("String", SyntheticText.word(random) + "-" + (1 + random.nextInt(999)) + " " + SyntheticText.word(random));
+                writer.writeEndElement();
+                out.date("DateCreated", 2000 + random.nextInt(20), 1 + random.nextInt(12), 1 + random.nextInt(28));
+                writer.writeStartElement("HeadingMappedToList");
+                for (int i = 1 + random.nextInt(3); i > 0; i--)
+                    writeDescriptorReference(out, "HeadingMappedTo", "*", 1 + random.nextInt(descriptors));
+                writer.writeEndElement();
+                if (random.nextInt(10) == 0) {
+                    writer.writeStartElement("PharmacologicalActionList");
+                    writeDescriptorReference(out, "PharmacologicalAction", "", 1 + random.nextInt(descriptors));
+                    writer.writeEndElement();
+                }
+                writer.writeEndElement();
+                out.newLine();
+            }
+            writer.writeEndElement();
+        } catch (XMLStreamException e) {
+            throw new RuntimeException("Error writing " + file, e);
+        }
+    }
+
+    private String nextTreeNumber(Random random, List<String> treeNumbers, List<Integer> childCounts) {
+        String treeNumber;
+        if (treeNumbers.size() < 100) {
+            int root = treeNumbers.size();
+            treeNumber = String.format("%c%02d", CATEGORIES.charAt(root % CATEGORIES.length()), root / CATEGORIES.length() + 1);
+        } else {
+            int parent;
+            do
+                parent = random.nextInt(treeNumbers.size());
+            while (childCounts.get(parent) == MAX_CHILDREN);
+            childCounts.set(parent, childCounts.get(parent) + 1);
+            treeNumber = String.format("%s.%03d", treeNumbers.get(parent), childCounts.get(parent));
+        }
+        treeNumbers.add(treeNumber);
+        childCounts.add(0);
+        return treeNumber;
+    }
+
+    private void writeDescriptor(SyntheticXmlWriter out, Random random, int descriptor, List<String> treeNumbers) throws XMLStreamException {
+        XMLStreamWriter writer = out.getWriter();
+        String ui = SyntheticText.descriptorUi(descriptor);
+        String name = SyntheticText.descriptorName(seed, descriptor);
+        writer.writeStartElement("DescriptorRecord");
+        writer.writeAttribute("DescriptorClass", "1");
+        out.element("DescriptorUI", ui);
+        writer.writeStartElement("DescriptorName");
+        out.element("String", name);
+        writer.writeEndElement();
+        out.date("DateCreated", 1999 + random.nextInt(20), 1 + random.nextInt(12), 1 + random.nextInt(28));
+        if (descriptor > 1 && random.nextInt(20) == 0) {
+            writer.writeStartElement("PharmacologicalActionList");
+            writeDescriptorReference(out, "PharmacologicalAction", "", 1 + random.nextInt(descriptor - 1));
+            writer.writeEndElement();
+        }
+        writer.writeStartElement("TreeNumberList");
+        for (String treeNumber : treeNumbers)
+            out.element("TreeNumber", treeNumber);
+        writer.writeEndElement();
+        writer.writeStartElement("ConceptList");
+        writer.writeStartElement("Concept");
+        writer.writeAttribute("PreferredConceptYN", "Y");
+        out.element("ConceptUI", "M" + ui.substring(1));
+        writer.writeStartElement("ConceptName");
+        out.element("String", name);
+        writer.writeEndElement();
+        out.element("ScopeNote", SyntheticText.sentence(random, 10, 30));
+        writer.writeStartElement("TermList");
+        for (int term = 0; term < 1 + random.nextInt(4); term++) {
+            writer.writeStartElement("Term");
+            writer.writeAttribute("ConceptPreferredTermYN", term == 0 ? "Y" : "N");
+            writer.writeAttribute("RecordPreferredTermYN", term == 0 ? "Y" : "N");
+            out.element("TermUI", String.format("T%06d%d", descriptor, term));
+            out.element("String", term == 0 ? name : SyntheticText.capitalize(SyntheticText.word(random)) + " " + SyntheticText.word(random));
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    private void writeDescriptorReference(SyntheticXmlWriter out, String element, String uiPrefix, int descriptor) throws XMLStreamException {
+        XMLStreamWriter writer = out.getWriter();
+        writer.writeStartElement(element);
+        writer.writeStartElement("DescriptorReferredTo");
+        out.element("DescriptorUI", uiPrefix + SyntheticText.descriptorUi(descriptor));
+        writer.writeStartElement("DescriptorName");
+        out.element("String", SyntheticText.descriptorName(seed, descriptor));
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+}
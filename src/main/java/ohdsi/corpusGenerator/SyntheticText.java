@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.corpusGenerator;
+
+import java.util.Random;
+
+/**
+ * Vocabulary and helpers shared by the synthetic MEDLINE and MeSH generators. All randomness is derived from explicit seeds, so the same seed always
+ * produces the same corpus.
+ */
+class SyntheticText {
+
+    static final String[] WORDS = {"acute", "adult", "adverse", "analysis", "antibody", "arterial", "association", "bacterial", "blood", "bone",
+            "brain", "cancer", "cardiac", "care", "cell", "chronic", "clinical", "cognitive", "cohort", "common", "control", "coronary", "disease", "dose",
+            "drug", "effect", "elderly", "endothelial", "enzyme", "epidemiology", "evaluation", "exposure", "expression", "factor", "function", "gene",
+            "genetic", "growth", "health", "heart", "hepatic", "hormone", "hospital", "human", "immune", "infection", "inflammatory", "inhibitor",
+            "injury", "insulin", "kidney", "liver", "lung", "malignant", "mechanism", "metabolic", "model", "mortality", "muscle", "neural", "outcome",
+            "oxidative", "patient", "pathway", "pediatric", "pharmacokinetics", "placebo", "plasma", "population", "pregnancy", "prevalence",
+            "protein", "pulmonary", "randomized", "receptor", "renal", "response", "risk", "safety", "screening", "sequence", "serum", "signaling",
+            "skin", "stem", "stress", "stroke", "study", "surgery", "survival", "syndrome", "therapy", "tissue", "transcription", "treatment", "trial",
+            "tumor", "vaccine", "vascular", "viral", "women"};
+
+    private static final String[] SUFFIXES = {"Diseases", "Agents", "Proteins", "Procedures", "Phenomena", "Disorders", "Receptors", "Compounds"};
+
+    private SyntheticText() {
+    }
+
+    /**
+     * Mixes a seed with further values into a new seed, so that for example each citation has its own random stream independent of generation order
+     */
+    static long mix(long seed, long... values) {
+        long h = seed ^ 0x9E3779B97F4A7C15L;
+        for (long value : values) {
+            h = (h ^ value) * 0xBF58476D1CE4E5B9L;
+            h ^= h >>> 31;
+            h *= 0x94D049BB133111EBL;
+            h ^= h >>> 29;
+        }
+        return h;
+    }
+
+    static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    static String sentence(Random random, int minWords, int maxWords) {
+        int words = minWords + random.nextInt(maxWords - minWords + 1);
+        StringBuilder sentence = new StringBuilder(capitalize(word(random)));
+        for (int i = 1; i < words; i++)
+            sentence.append(' ').append(word(random));
+        return sentence.append('.').toString();
+    }
+
+    static String paragraph(Random random, int minSentences, int maxSentences) {
+        int sentences = minSentences + random.nextInt(maxSentences - minSentences + 1);
+        StringBuilder paragraph = new StringBuilder(sentence(random, 8, 25));
+        for (int i = 1; i < sentences; i++)
+            paragraph.append(' ').append(sentence(random, 8, 25));
+        return paragraph.toString();
+    }
+
+    /**
+     * @return the name of the descriptor with the given 1-based number. Citations refer to descriptors by number, so names match the MeSH files
+     */
+    static String descriptorName(long seed, int descriptor) {
+        Random random = new Random(mix(seed, 'D', descriptor));
+        String name = capitalize(word(random)) + " " + capitalize(word(random));
+        return random.nextBoolean() ? name + " " + SUFFIXES[random.nextInt(SUFFIXES.length)] : name;
+    }
+
+    static String descriptorUi(int descriptor) {
+        return String.format("D%06d", descriptor);
+    }
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.corpusGenerator;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams an XML document into a gzipped file. GZIPOutputStream does not write a modification time, so identical content gives identical files.
+ */
+class SyntheticXmlWriter implements AutoCloseable {
+
+    private final OutputStream outputStream;
+    private final XMLStreamWriter writer;
+
+    SyntheticXmlWriter(File file) {
+        try {
+            outputStream = new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file), 1 << 16), 1 << 16);
+            writer = XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream, StandardCharsets.UTF_8.name());
+            writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+            newLine();
+        } catch (IOException | XMLStreamException e) {
+            throw new RuntimeException("Error creating " + file, e);
+        }
+    }
+
+    XMLStreamWriter getWriter() {
+        return writer;
+    }
+
+    void element(String name, String text) throws XMLStreamException {
+        writer.writeStartElement(name);
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+    }
+
+    void date(String name, int year, int month, int day) throws XMLStreamException {
+        writer.writeStartElement(name);
+        dateParts(year, month, day);
+        writer.writeEndElement();
+    }
+
+    void dateParts(int year, int month, int day) throws XMLStreamException {
+        element("Year", Integer.toString(year));
+        element("Month", String.format("%02d", month));
+        element("Day", String.format("%02d", day));
+    }
+
+    void newLine() throws XMLStreamException {
+        writer.writeCharacters("\n");
+    }
+
+    @Override
+    public void close() {
+        try {
+            writer.writeEndDocument();
+            writer.close();
+            outputStream.close();
+        } catch (IOException | XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
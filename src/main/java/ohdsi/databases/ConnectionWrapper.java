@@ -17,6 +17,8 @@ package ohdsi.databases;
 
 import ohdsi.medlineXmlToDatabase.Abbreviator;
 import ohdsi.medlineXmlToDatabase.MedlineCitationAnalyser.VariableType;
+import ohdsi.metrics.CitationDeleteEvent;
+import ohdsi.metrics.IngestionMetrics;
 import ohdsi.utilities.files.Row;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -31,12 +33,15 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import static ohdsi.databases.DbType.H2;
 import static ohdsi.databases.DbType.MSSQL;
 import static ohdsi.databases.DbType.MYSQL;
 import static ohdsi.databases.DbType.POSTGRESQL;
@@ -49,10 +54,19 @@ import static ohdsi.databases.DbType.POSTGRESQL;
 public class ConnectionWrapper implements AutoCloseable {
 
     private static final Logger log = LogManager.getLogger(ConnectionWrapper.class.getName());
+    private static final int MAX_IDENTIFIER_LENGTH = 63;
+    /**
+     * PMIDs above this value all end up in the last partition of a partitioned table.
+     */
+    private static final int MAX_PARTITIONED_PMID = 100_000_000;
+    private static final int MAX_MSSQL_PARTITIONS = 15_000;
+    private static final int MAX_MYSQL_PARTITIONS = 8_192;
     private final Connection connection;
     private final DbType dbType;
     private boolean batchMode = false;
     private Statement statement;
+    private final List<String> batchSql = new ArrayList<>();
+    private final Map<String, PreparedStatement> sql2PreparedStatement = new HashMap<>();
 
     public ConnectionWrapper(String server, String user, String password, DbType dbType) {
         this.connection = DBConnector.connect(server, user, password, dbType);
@@ -64,26 +78,172 @@ public class ConnectionWrapper implements AutoCloseable {
         try {
             if (this.batchMode && !batchMode) { // turn off batchmode
                 this.batchMode = false;
-                statement.executeBatch();
+                long start = System.nanoTime();
+                executePendingBatches();
                 statement.close();
                 connection.setAutoCommit(true);
+                IngestionMetrics.get().recordSince(IngestionMetrics.Stage.EXECUTE_BATCH, start);
             } else {
                 this.batchMode = true;
+                batchSql.clear();
                 connection.setAutoCommit(false);
                 statement = connection.createStatement();
             }
         } catch (SQLException e) {
-            System.err.println("Error: " + e.getMessage());
-            e.printStackTrace();
-            e = e.getNextException();
-            if (e != null) {
-                System.err.println("Error: " + e.getMessage());
-                e.printStackTrace();
+            throw new BatchExecutionException(null, e);
+        }
+    }
+
+    /**
+     * Executes the statements batched so far without committing them, so a large transaction does not have to be kept in memory. Batch mode stays on.
+     */
+    public void flushBatch() {
+        if (batchMode)
+            executePendingBatches();
+    }
+
+    private void executePendingBatches() {
+        String failedSql = "";
+        try {
+            executeBatch(statement, batchSql);
+            batchSql.clear();
+            for (Map.Entry<String, PreparedStatement> entry : sql2PreparedStatement.entrySet()) {
+                failedSql = entry.getKey();
+                entry.getValue().executeBatch();
+            }
+        } catch (SQLException e) {
+            SQLException nextException = e.getNextException();
+            if (e instanceof BatchSqlException)
+                failedSql = ((BatchSqlException) e).sql;
+            throw new BatchExecutionException(getTableName(failedSql), nextException == null ? e : nextException);
+        }
+    }
+
+    /**
+     * Executes the batch of the statement, identifying the statement that failed from the update counts
+     */
+    private static void executeBatch(Statement statement, List<String> batchSql) throws SQLException {
+        try {
+            statement.executeBatch();
+        } catch (BatchUpdateException e) {
+            int[] updateCounts = e.getUpdateCounts();
+            int failed = updateCounts.length;
+            for (int i = 0; i < updateCounts.length; i++)
+                if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+                    failed = i;
+                    break;
+                }
+            BatchSqlException batchSqlException = new BatchSqlException(failed < batchSql.size() ? batchSql.get(failed) : null, e);
+            batchSqlException.setNextException(e.getNextException());
+            throw batchSqlException;
+        }
+    }
+
+    /**
+     * Rolls back the current transaction after a failure in batch mode, discarding all batched statements, and turns off batch mode. The connection can
+     * be used again afterwards.
+     */
+    public void abortBatch() {
+        batchMode = false;
+        batchSql.clear();
+        try {
+            if (statement != null && !statement.isClosed()) {
+                statement.clearBatch();
+                statement.close();
             }
-            throw new RuntimeException("Error executing batch data");
+            for (PreparedStatement preparedStatement : sql2PreparedStatement.values())
+                preparedStatement.clearBatch();
+            if (!connection.getAutoCommit())
+                connection.rollback();
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Error rolling back batch", e);
         }
     }
 
+    /**
+     * @return the table targeted by the INSERT or DELETE statement, or null if it cannot be determined
+     */
+    private static String getTableName(String sql) {
+        if (sql == null)
+            return null;
+        String[] words = sql.trim().split("\\s+");
+        for (int i = 0; i < words.length - 1; i++)
+            if (words[i].equalsIgnoreCase("INTO") || words[i].equalsIgnoreCase("FROM"))
+                return words[i + 1].replaceAll("\\(.*", "");
+        return null;
+    }
+
+    /**
+     * Thrown when a batch cannot be executed. The transaction of the batch is still open, and should be rolled back using abortBatch().
+     */
+    public static class BatchExecutionException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private final String table;
+
+        private BatchExecutionException(String table, SQLException cause) {
+            super("Error executing batch data" + (table == null ? "" : " for table " + table) + ": " + cause.getMessage(), cause);
+            this.table = table;
+        }
+
+        /**
+         * @return the table of the statement that failed, or null if unknown
+         */
+        public String getTable() {
+            return table;
+        }
+
+        /**
+         * @return true if the batch failed because of the data itself, that is a data exception (SQLState class 22) or an integrity constraint
+         *         violation (SQLState class 23), rather than because of the connection or the database
+         */
+        public boolean isDataError() {
+            for (Throwable cause = getCause(); cause != null; cause = cause.getCause())
+                if (cause instanceof SQLException && ((SQLException) cause).getSQLState() != null) {
+                    String sqlState = ((SQLException) cause).getSQLState();
+                    return sqlState.startsWith("22") || sqlState.startsWith("23");
+                }
+            return false;
+        }
+    }
+
+    private static class BatchSqlException extends SQLException {
+        private static final long serialVersionUID = 1L;
+        private final String sql;
+
+        private BatchSqlException(String sql, BatchUpdateException cause) {
+            super(cause.getMessage(), cause.getSQLState(), cause.getErrorCode(), cause);
+            this.sql = sql;
+        }
+    }
+
+    /**
+     * Turns minimal logging on or off for the given tables, to reduce the transaction log volume of a baseline load. On PostgreSQL the tables (or their
+     * partitions) are made UNLOGGED, and turning minimal logging off restores the logged state. Unlogged tables are emptied after a crash, so all tables
+     * that must stay consistent with each other should be switched together. Other platforms are not supported, since row-by-row inserts are never
+     * minimally logged on SQL Server.
+     *
+     * @param minimalLogging Whether to turn minimal logging on or off
+     * @param tables         The tables to apply this to
+     */
+    public void setMinimalLogging(boolean minimalLogging, Collection<String> tables) {
+        if (dbType.equals(POSTGRESQL)) {
+            for (String table : tables) {
+                List<String> partitions = getPostgreSqlPartitions(table);
+                if (partitions.isEmpty()) // Partitioned tables themselves cannot be altered, only their partitions
+                    partitions.add(table);
+                for (String partition : partitions)
+                    execute("ALTER TABLE " + partition + (minimalLogging ? " SET UNLOGGED" : " SET LOGGED"));
+            }
+        } else
+            log.warn("Minimal logging is not supported for {}", dbType);
+    }
+
+    public DbType getDbType() {
+        return dbType;
+    }
+
     /**
      * Switch the database to use.
      *
@@ -92,6 +252,8 @@ public class ConnectionWrapper implements AutoCloseable {
     public void use(String database) {
         if (dbType.equals(POSTGRESQL))
             execute("SET search_path TO " + database);
+        else if (dbType.equals(H2))
+            execute("SET SCHEMA " + database);
         else
             execute("USE " + database);
     }
@@ -110,9 +272,10 @@ public class ConnectionWrapper implements AutoCloseable {
         try {
             if (sql.length() == 0)
                 return;
-            if (batchMode)
+            if (batchMode) {
                 statement.addBatch(sql);
-            else {
+                batchSql.add(sql);
+            } else {
                 try (Statement stmt = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
                     stmt.execute(sql);
                 }
@@ -130,6 +293,13 @@ public class ConnectionWrapper implements AutoCloseable {
     }
 
     public void insertIntoTable(String table, Map<String, String> field2Value) {
+        execute(getInsertSql(table, field2Value));
+    }
+
+    /**
+     * Builds an INSERT statement with the values as literals, escaped for the current dialect
+     */
+    public String getInsertSql(String table, Map<String, String> field2Value) {
         List<String> fields = new ArrayList<>(field2Value.keySet());
 
         StringBuilder sql = new StringBuilder();
@@ -156,7 +326,7 @@ public class ConnectionWrapper implements AutoCloseable {
                 sql.append(field2Value.get(field).replaceAll("\\\\", "\\\\\\\\").replaceAll("\"", "\\\\\""));
             }
             sql.append("\");");
-        } else if (dbType.equals(MSSQL) || dbType.equals(POSTGRESQL)) { // MSSQL uses single quotes, escape by doubling
+        } else if (dbType.equals(MSSQL) || dbType.equals(POSTGRESQL) || dbType.equals(H2)) { // MSSQL uses single quotes, escape by doubling
             sql.append(") VALUES ('");
             first = true;
             for (String field : fields) {
@@ -168,7 +338,34 @@ public class ConnectionWrapper implements AutoCloseable {
             }
             sql.append("')");
         }
-        execute(sql.toString());
+        return sql.toString();
+    }
+
+    /**
+     * Inserts a row using a prepared statement, so values are sent with their own types (e.g. a LocalDate for a DATE column) instead of as SQL
+     * literals. The prepared statements are reused, and in batch mode the rows are executed after the batched SQL statements when batch mode is
+     * turned off.
+     */
+    public void insertTypedValues(String table, List<String> fields, Object... values) {
+        String sql = "INSERT INTO " + Abbreviator.abbreviate(table) + " (" + Abbreviator.abbreviate(String.join(",", fields)) + ") VALUES (?"
+                + ",?".repeat(fields.size() - 1) + ")";
+        try {
+            PreparedStatement preparedStatement = sql2PreparedStatement.get(sql);
+            if (preparedStatement == null) {
+                preparedStatement = connection.prepareStatement(sql);
+                sql2PreparedStatement.put(sql, preparedStatement);
+            }
+            for (int i = 0; i < values.length; i++)
+                preparedStatement.setObject(i + 1, values[i]);
+            if (batchMode)
+                preparedStatement.addBatch();
+            else
+                preparedStatement.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println(sql);
+            e.printStackTrace();
+            throw new RuntimeException("Error inserting data");
+        }
     }
 
     public void insertIntoTable(String tableName, List<Row> rows, boolean emptyStringToNull) {
@@ -208,6 +405,16 @@ public class ConnectionWrapper implements AutoCloseable {
     }
 
     public void createTable(String table, List<String> fields, List<String> types, List<String> primaryKey) {
+        createTable(table, fields, types, primaryKey, 0);
+    }
+
+    /**
+     * Creates a table, optionally range-partitioned on the PMID field.
+     *
+     * @param pmidPartitionSize Number of PMIDs per partition, or 0 if the table should not be partitioned. The primary key must include the PMID.
+     */
+    public void createTable(String table, List<String> fields, List<String> types, List<String> primaryKey, int pmidPartitionSize) {
+        checkPmidPartitionSize(pmidPartitionSize);
         StringBuilder sql = new StringBuilder();
         sql.append("CREATE TABLE ").append(table).append(" (\n");
         boolean first = true;
@@ -220,49 +427,175 @@ public class ConnectionWrapper implements AutoCloseable {
         }
         if (primaryKey != null && !primaryKey.isEmpty())
             sql.append(",\n  PRIMARY KEY (").append(String.join(",", primaryKey)).append(")\n");
-        sql.append(");\n\n");
+        sql.append(")");
+        if (pmidPartitionSize > 0)
+            sql.append(getPartitionClause(pmidPartitionSize));
+        sql.append(";\n\n");
         execute(Abbreviator.abbreviate(sql.toString()));
+        if (pmidPartitionSize > 0 && dbType.equals(POSTGRESQL))
+            createPostgreSqlPartitions(Abbreviator.abbreviate(table), pmidPartitionSize);
+    }
+
+    /**
+     * Checks that partitioning on PMID with the given partition size does not create more partitions per table than the database supports, so an
+     * invalid size fails before any table is created instead of partway through.
+     *
+     * @param pmidPartitionSize Number of PMIDs per partition, or 0 if the tables should not be partitioned
+     */
+    public void checkPmidPartitionSize(int pmidPartitionSize) {
+        if (pmidPartitionSize < 0)
+            throw new RuntimeException("PMID_PARTITION_SIZE must be a positive number, or empty to not partition the tables");
+        if (pmidPartitionSize == 0)
+            return;
+        long partitions = ((long) MAX_PARTITIONED_PMID + pmidPartitionSize - 1) / pmidPartitionSize;
+        int maxPartitions = dbType.equals(MSSQL) ? MAX_MSSQL_PARTITIONS : dbType.equals(MYSQL) ? MAX_MYSQL_PARTITIONS : Integer.MAX_VALUE;
+        if (partitions > maxPartitions)
+            throw new RuntimeException("PMID_PARTITION_SIZE " + pmidPartitionSize + " would create " + partitions + " partitions per table, but "
+                    + dbType + " supports at most " + maxPartitions + ". Use a PMID_PARTITION_SIZE of at least "
+                    + ((MAX_PARTITIONED_PMID + maxPartitions - 1) / maxPartitions));
+    }
+
+    private String getPartitionClause(int pmidPartitionSize) {
+        if (dbType.equals(POSTGRESQL)) {
+            return " PARTITION BY RANGE (pmid)";
+        } else if (dbType.equals(MSSQL)) {
+            String function = "pf_pmid_" + pmidPartitionSize;
+            String scheme = "ps_pmid_" + pmidPartitionSize;
+            List<String> boundaries = new ArrayList<>();
+            for (int pmid = pmidPartitionSize; pmid < MAX_PARTITIONED_PMID; pmid += pmidPartitionSize)
+                boundaries.add(Integer.toString(pmid));
+            execute("IF NOT EXISTS (SELECT * FROM sys.partition_functions WHERE name = '" + function + "') CREATE PARTITION FUNCTION " + function
+                    + " (INT) AS RANGE RIGHT FOR VALUES (" + String.join(",", boundaries) + ")");
+            execute("IF NOT EXISTS (SELECT * FROM sys.partition_schemes WHERE name = '" + scheme + "') CREATE PARTITION SCHEME " + scheme
+                    + " AS PARTITION " + function + " ALL TO ([PRIMARY])");
+            return " ON " + scheme + " (pmid)";
+        } else if (dbType.equals(MYSQL)) {
+            StringBuilder clause = new StringBuilder(" PARTITION BY RANGE (pmid) (");
+            for (int pmid = pmidPartitionSize; pmid < MAX_PARTITIONED_PMID; pmid += pmidPartitionSize)
+                clause.append("PARTITION p").append(pmid / pmidPartitionSize - 1).append(" VALUES LESS THAN (").append(pmid).append("), ");
+            clause.append("PARTITION pmax VALUES LESS THAN MAXVALUE)");
+            return clause.toString();
+        } else if (dbType.equals(H2)) {
+            log.warn("Partitioning is not supported for {}, creating an unpartitioned table", dbType);
+            return "";
+        } else
+            throw new RuntimeException("Unknown datasource type " + dbType);
+    }
+
+    /**
+     * @return the names of the partitions of the table, or an empty list if the table is not partitioned
+     */
+    private List<String> getPostgreSqlPartitions(String table) {
+        List<String> partitions = new ArrayList<>();
+        for (Row row : query("SELECT c.relname AS partition_name FROM pg_inherits i INNER JOIN pg_class c ON i.inhrelid = c.oid "
+                + "INNER JOIN pg_class p ON i.inhparent = p.oid WHERE p.relname = '" + table + "'"))
+            partitions.add(row.get("partition_name"));
+        return partitions;
+    }
+
+    private void createPostgreSqlPartitions(String table, int pmidPartitionSize) {
+        for (int pmid = 0; pmid < MAX_PARTITIONED_PMID; pmid += pmidPartitionSize)
+            execute("CREATE TABLE " + table + "_p" + (pmid / pmidPartitionSize) + " PARTITION OF " + table + " FOR VALUES FROM (" + pmid + ") TO ("
+                    + (pmid + pmidPartitionSize) + ")");
+        execute("CREATE TABLE " + table + "_pdefault PARTITION OF " + table + " DEFAULT");
+    }
+
+    /**
+     * Creates a secondary index on a single column, unless an index with the same name already exists. On PostgreSQL the index is built concurrently, so
+     * the table remains available for reading and writing. PostgreSQL cannot build an index on a partitioned table concurrently, so there the index is
+     * created on the parent table only, and the index of each partition is built concurrently and attached to it.
+     */
+    public void createIndex(String table, String column) {
+        String name = getIndexName(table, column);
+        if (dbType.equals(POSTGRESQL)) {
+            List<String> partitions = getPostgreSqlPartitions(table);
+            if (partitions.isEmpty())
+                execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + name + " ON " + table + " (" + column + ")");
+            else {
+                execute("CREATE INDEX IF NOT EXISTS " + name + " ON ONLY " + table + " (" + column + ")");
+                for (String partition : partitions) {
+                    String partitionIndex = getIndexName(partition, column);
+                    execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + partitionIndex + " ON " + partition + " (" + column + ")");
+                    if (!query("SELECT 1 AS attached FROM pg_inherits i INNER JOIN pg_class c ON i.inhrelid = c.oid WHERE c.relname = '" + partitionIndex
+                            + "'").iterator().hasNext())
+                        execute("ALTER INDEX " + name + " ATTACH PARTITION " + partitionIndex);
+                }
+            }
+        } else if (dbType.equals(MSSQL)) {
+            execute("IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = '" + name + "') CREATE INDEX " + name + " ON " + table + " (" + column + ")");
+        } else if (dbType.equals(H2)) {
+            execute("CREATE INDEX IF NOT EXISTS " + name + " ON " + table + " (" + column + ")");
+        } else if (dbType.equals(MYSQL)) {
+            String query = "SELECT index_name FROM information_schema.statistics WHERE table_schema = DATABASE() AND index_name = '" + name + "'";
+            if (!query(query).iterator().hasNext())
+                execute("CREATE INDEX " + name + " ON " + table + " (" + column + ")");
+        } else
+            throw new RuntimeException("Unknown datasource type " + dbType);
+    }
+
+    /**
+     * Index names must be unique and short enough for all platforms (PostgreSQL allows 63 characters)
+     */
+    private String getIndexName(String table, String column) {
+        String name = "idx_" + table + "_" + column;
+        if (name.length() > MAX_IDENTIFIER_LENGTH)
+            name = name.substring(0, MAX_IDENTIFIER_LENGTH - 9) + "_" + String.format("%08x", name.hashCode());
+        return name;
+    }
+
+    public void createView(String view, String query) {
+        execute("CREATE VIEW " + view + " AS " + query);
     }
 
     public void createTableUsingVariableTypes(String table, List<String> fields, List<VariableType> variableTypes, List<String> primaryKey) {
+        createTableUsingVariableTypes(table, fields, variableTypes, primaryKey, 0);
+    }
+
+    public void createTableUsingVariableTypes(String table, List<String> fields, List<VariableType> variableTypes, List<String> primaryKey,
+                                              int pmidPartitionSize) {
         List<String> types = new ArrayList<String>(variableTypes.size());
-        for (VariableType variableType : variableTypes) {
-            if (dbType.equals(MYSQL)) {
-                if (variableType.isNumeric)
-                    types.add("INT");
-                else if (variableType.maxLength > 255)
-                    types.add("TEXT");
-                else
-                    types.add("VARCHAR(255)");
-            } else if (dbType.equals(MSSQL)) {
-                if (variableType.isNumeric) {
-                    if (variableType.maxLength < 10)
-                        types.add("INT");
-                    else
-                        types.add("BIGINT");
-                } else if (variableType.maxLength > 255)
-                    types.add("VARCHAR(MAX)");
-                else
-                    types.add("VARCHAR(255)");
-            } else if (dbType.equals(POSTGRESQL)) {
-                if (variableType.isNumeric) {
-                    if (variableType.maxLength < 10)
-                        types.add("INT");
-                    else
-                        types.add("BIGINT");
-                } else if (variableType.maxLength > 255)
-                    types.add("TEXT");
-                else
-                    types.add("VARCHAR(255)");
-            } else
-                throw new RuntimeException("Unknown datasource type " + dbType);
-        }
+        for (VariableType variableType : variableTypes)
+            types.add(getSqlType(variableType));
 
-        createTable(table, fields, types, primaryKey);
+        createTable(table, fields, types, primaryKey, pmidPartitionSize);
+    }
+
+    /**
+     * Picks the narrowest type in the current dialect that can hold all observed values.
+     */
+    private String getSqlType(VariableType variableType) {
+        if (!dbType.equals(MYSQL) && !dbType.equals(MSSQL) && !dbType.equals(POSTGRESQL) && !dbType.equals(H2))
+            throw new RuntimeException("Unknown datasource type " + dbType);
+        if (variableType.isFlag()) {
+            if (dbType.equals(POSTGRESQL)) // PostgreSQL accepts 'Y' and 'N' as boolean literals
+                return "BOOLEAN";
+            else
+                return "CHAR(1)";
+        } else if (variableType.isDate()) {
+            return "DATE";
+        } else if (variableType.isNumeric) {
+            long bound = variableType.getNumericBound();
+            if (bound <= Short.MAX_VALUE)
+                return "SMALLINT";
+            else if (bound <= Integer.MAX_VALUE)
+                return "INT";
+            else
+                return "BIGINT";
+        } else {
+            int length = variableType.getVarcharLength();
+            if (length != -1)
+                return "VARCHAR(" + length + ")";
+            else if (dbType.equals(MSSQL))
+                return "VARCHAR(MAX)";
+            else
+                return "TEXT";
+        }
     }
 
     public void close() {
         try {
+            for (PreparedStatement preparedStatement : sql2PreparedStatement.values())
+                preparedStatement.close();
             connection.close();
         } catch (SQLException e) {
             e.printStackTrace();
@@ -275,6 +608,7 @@ public class ConnectionWrapper implements AutoCloseable {
 
     public boolean existsForPMIDAndVersion(String pmid, String pmidVersion, String table) {
         String target = table == null ? "medcit" : table;
+        long start = System.nanoTime();
         try (PreparedStatement ps = connection.prepareStatement("SELECT pmid FROM " + target + " WHERE pmid = ? AND pmid_version = ? LIMIT 1")) {
             ps.setString(1, pmid);
             ps.setString(2, pmidVersion);
@@ -285,11 +619,32 @@ public class ConnectionWrapper implements AutoCloseable {
         } catch (SQLException e) {
             e.printStackTrace();
             throw new RuntimeException(e);
+        } finally {
+            IngestionMetrics.get().recordSince(IngestionMetrics.Stage.EXISTS_CHECK, start);
         }
         return false;
     }
 
+    /**
+     * @return the value of the field in the row of the table with the given PMID and version, or null if there is no such row
+     */
+    public String getValueForPMIDAndVersion(String table, String field, String pmid, String pmidVersion) {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT " + field + " FROM " + table + " WHERE pmid = ? AND pmid_version = ?")) {
+            ps.setInt(1, Integer.parseInt(pmid));
+            ps.setInt(2, Integer.parseInt(pmidVersion));
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+    }
+
     public void deleteAllForPMIDAndVersion(Set<String> tables, String pmid, String pmidVersion) {
+        long start = System.nanoTime();
+        CitationDeleteEvent event = new CitationDeleteEvent();
+        event.begin();
         try (Statement stmt = connection.createStatement()) {
             for (String table : tables) {
                 String sql = "DELETE FROM " + Abbreviator.abbreviate(table) + " WHERE pmid = " + pmid + " AND pmid_version = " + pmidVersion;
@@ -300,22 +655,46 @@ public class ConnectionWrapper implements AutoCloseable {
             e.printStackTrace();
             throw new RuntimeException();
         }
+        IngestionMetrics.get().recordSince(IngestionMetrics.Stage.DELETE, start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.pmid = pmid;
+            event.pmidVersion = pmidVersion;
+            event.tables = tables.size();
+            event.commit();
+        }
 
 
     }
 
+    /**
+     * Deletes the rows of a citation from a single table that is kept alongside the citation tables. Unlike deleteAllForPMIDAndVersion, this is not
+     * recorded as a citation delete in the metrics.
+     */
+    public void deleteForPMIDAndVersion(String table, String pmid, String pmidVersion) {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("DELETE FROM " + Abbreviator.abbreviate(table) + " WHERE pmid = " + pmid + " AND pmid_version = " + pmidVersion);
+        } catch (SQLException e) {
+            throw new RuntimeException("Error deleting PMID " + pmid + " from " + table, e);
+        }
+    }
+
     public List<String> getTableNames(String database) {
         List<String> names = new ArrayList<String>();
         String query = null;
         if (dbType.equals(MYSQL)) {
             if (database == null)
-                query = "SHOW TABLES";
+                query = "SHOW FULL TABLES WHERE Table_type = 'BASE TABLE'";
             else
-                query = "SHOW TABLES IN " + database;
+                query = "SHOW FULL TABLES IN " + database + " WHERE Table_type = 'BASE TABLE'";
         } else if (dbType.equals(MSSQL)) {
             query = "SELECT name FROM " + database + ".sys.tables ";
         } else if (dbType.equals(POSTGRESQL)) {
-            query = "SELECT table_name FROM information_schema.tables WHERE table_schema = '" + database + "'";
+            // Skip views and the partitions of partitioned tables:
+            query = "SELECT c.relname AS table_name FROM pg_class c INNER JOIN pg_namespace n ON c.relnamespace = n.oid WHERE n.nspname = '" + database
+                    + "' AND c.relkind IN ('r', 'p') AND NOT c.relispartition";
+        } else if (dbType.equals(H2)) {
+            query = "SELECT table_name FROM information_schema.tables WHERE table_schema = '" + database + "' AND table_type = 'BASE TABLE'";
         }
         for (Row row : query(query))
             names.add(row.get(row.getFieldNames().get(0)));
@@ -345,7 +724,7 @@ public class ConnectionWrapper implements AutoCloseable {
     }
 
     public void setDateFormat() {
-        if (!dbType.equals(MYSQL)) {
+        if (dbType.equals(POSTGRESQL) || dbType.equals(MSSQL)) {
             try (Statement stmt = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE)) {
                 if (dbType.equals(POSTGRESQL)) {
                     stmt.execute("SET datestyle = \"ISO, MDY\"");
@@ -359,7 +738,7 @@ public class ConnectionWrapper implements AutoCloseable {
     }
 
     public void dropTableIfExists(String table) {
-        if (dbType.equals(MYSQL)) {
+        if (dbType.equals(MYSQL) || dbType.equals(H2)) {
             execute("DROP TABLE IF EXISTS " + table);
         } else if (dbType.equals(POSTGRESQL)) {
             try (Statement stmt = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
@@ -21,6 +21,8 @@ import java.sql.SQLException;
 
 public class DBConnector {
 
+    private static final String H2_NON_KEYWORDS = "VALUE,YEAR,MONTH,DAY,HOUR,MINUTE,SECOND,KEY,TYPE";
+
     private DBConnector() {
     }
 
@@ -29,9 +31,23 @@ public class DBConnector {
             case MSSQL -> DBConnector.connectToMSSQL(server, user, password);
             case MYSQL -> DBConnector.connectToMySQL(server, user, password);
             case POSTGRESQL -> DBConnector.connectToPostgreSQL(server, user, password);
+            case H2 -> DBConnector.connectToH2(server, user, password);
         };
     }
 
+    /**
+     * Connects to an embedded H2 database in PostgreSQL compatibility mode. Identifiers are lower case, as in PostgreSQL, and date part names that H2
+     * reserves as keywords are allowed as column names.
+     */
+    public static Connection connectToH2(String server, String user, String password) {
+        String url = "jdbc:h2:" + server + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH;NON_KEYWORDS=" + H2_NON_KEYWORDS;
+        try {
+            return DriverManager.getConnection(url, user, password);
+        } catch (SQLException e1) {
+            throw new RuntimeException("Cannot connect to DB server: " + e1.getMessage());
+        }
+    }
+
     public static Connection connectToPostgreSQL(String server, String user, String password) {
         if (!server.contains("/"))
             throw new RuntimeException("For PostgreSQL, database name must be specified in the server field (<host>/<database>)");
@@ -17,6 +17,10 @@ package ohdsi.databases;
 
 
 public enum DbType {
-    MYSQL, MSSQL, POSTGRESQL
+    MYSQL, MSSQL, POSTGRESQL,
+    /**
+     * Embedded database, used for benchmarks and tests. The server is the H2 database path (e.g. mem:medline or ./data/medline)
+     */
+    H2
 }
 
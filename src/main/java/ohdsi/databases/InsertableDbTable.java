@@ -1,11 +1,15 @@
 package ohdsi.databases;
 
 import ohdsi.utilities.files.Row;
+import ohdsi.utilities.files.RowWriter;
 
 import java.util.ArrayList;
 import java.util.List;
 
-public class InsertableDbTable implements AutoCloseable {
+/**
+ * Writes rows to a database table in batches, creating the table when the first row arrives. Rows can be written from multiple threads.
+ */
+public class InsertableDbTable implements RowWriter {
 
     public static final int batchSize = 1000;
     private final ConnectionWrapper connectionWrapper;
@@ -20,7 +24,7 @@ public class InsertableDbTable implements AutoCloseable {
         this.connectionWrapper = connectionWrapper;
     }
 
-    public void write(Row row) {
+    public synchronized void write(Row row) {
         if (firstRow) {
             createTable(row);
             firstRow = false;
@@ -47,8 +51,9 @@ public class InsertableDbTable implements AutoCloseable {
         connectionWrapper.createTable(tableName, fields, types, null);
     }
 
-    public void close() {
-        connectionWrapper.insertIntoTable(tableName, batch, true);
+    public synchronized void close() {
+        if (!batch.isEmpty())
+            connectionWrapper.insertIntoTable(tableName, batch, true);
         batch.clear();
     }
 }
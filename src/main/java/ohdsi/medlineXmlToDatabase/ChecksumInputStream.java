@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.medlineXmlToDatabase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Computes the SHA-256 checksum of a stream while it is being read. The remaining bytes are read by finish(), so the checksum covers the whole
+ * stream. The XML reader closes its input as soon as the document has been read, so closing the stream finishes it first.
+ */
+class ChecksumInputStream extends DigestInputStream {
+
+    private boolean finished = false;
+
+    ChecksumInputStream(InputStream inputStream) {
+        super(inputStream, createDigest());
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the checksum as hexadecimal string. Only valid after finishing the stream.
+     */
+    String getChecksum() {
+        return HexFormat.of().formatHex(getMessageDigest().digest());
+    }
+
+    /**
+     * Reads the remaining bytes of the stream, if it has not been finished before
+     */
+    void finish() throws IOException {
+        if (finished)
+            return;
+        finished = true;
+        transferTo(OutputStream.nullOutputStream());
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        super.close();
+    }
+}
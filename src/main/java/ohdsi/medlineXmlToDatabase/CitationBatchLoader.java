@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.medlineXmlToDatabase;
+
+import ohdsi.databases.ConnectionWrapper;
+import ohdsi.databases.ConnectionWrapper.BatchExecutionException;
+import ohdsi.metrics.CitationBatchTracker;
+import ohdsi.metrics.IngestionMetrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.dom4j.Node;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads a batch of citations in a single transaction, together with the checkpoint of the file. If the batch fails because of its data (a data
+ * exception or constraint violation), the transaction is rolled back and the batch is split in halves that are loaded separately, until the failing
+ * citations are isolated. These are written to the quarantine table, so a single bad citation costs a few extra transactions instead of the other
+ * citations in its batch. Any other failure, such as a lost connection, is rethrown after the rollback.
+ */
+class CitationBatchLoader {
+
+    private static final Logger log = LogManager.getLogger(CitationBatchLoader.class.getName());
+
+    private final ConnectionWrapper connectionWrapper;
+    private final PmidToDate pmidToDate;
+    private final MedlineCitationParser medlineCitationParser;
+    private final FileLedger fileLedger;
+    private final Quarantine quarantine;
+    private final boolean updateFiles;
+
+    CitationBatchLoader(ConnectionWrapper connectionWrapper, PmidToDate pmidToDate, MedlineCitationParser medlineCitationParser, FileLedger fileLedger,
+                        Quarantine quarantine, boolean updateFiles) {
+        this.connectionWrapper = connectionWrapper;
+        this.pmidToDate = pmidToDate;
+        this.medlineCitationParser = medlineCitationParser;
+        this.fileLedger = fileLedger;
+        this.quarantine = quarantine;
+        this.updateFiles = updateFiles;
+    }
+
+    /**
+     * Loads the MedlineCitation nodes from index from (inclusive) to index to (exclusive), and checkpoints the file at index to
+     */
+    void load(File file, List<Node> citations, int from, int to, CitationBatchTracker batchTracker) {
+        List<String> pmids = new ArrayList<>(to - from);
+        try {
+            connectionWrapper.setBatchMode(true);
+            for (int i = from; i < to; i++) {
+                if (medlineCitationParser.parseAndInjectIntoDB(citations.get(i), updateFiles))
+                    pmidToDate.insertDates(citations.get(i), updateFiles);
+                pmids.add(medlineCitationParser.getPmid());
+            }
+            fileLedger.checkpoint(file, to);
+            connectionWrapper.setBatchMode(false);
+            medlineCitationParser.commit();
+            // Citations are only passed to the tracker once committed, so a bisected batch does not count them again:
+            pmids.forEach(batchTracker::citation);
+        } catch (RuntimeException e) {
+            connectionWrapper.abortBatch();
+            medlineCitationParser.rollback();
+            if (!(e instanceof BatchExecutionException && ((BatchExecutionException) e).isDataError()))
+                throw e;
+            IngestionMetrics.get().countFailedBatch();
+            if (to - from == 1) {
+                String table = ((BatchExecutionException) e).getTable();
+                log.error("Quarantining citation {} of {}: {}", from, file.getName(), e.getMessage());
+                connectionWrapper.setBatchMode(true);
+                quarantine.add(file.getName(), citations.get(from), table, e);
+                fileLedger.checkpoint(file, to);
+                connectionWrapper.setBatchMode(false);
+                IngestionMetrics.get().countQuarantined();
+            } else {
+                log.warn("Loading citations {} to {} of {} failed, splitting the batch: {}", from, to - 1, file.getName(), e.getMessage());
+                int middle = (from + to) / 2;
+                load(file, citations, from, middle, batchTracker);
+                load(file, citations, middle, to, batchTracker);
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.medlineXmlToDatabase;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Read-only citation graph, built from the CommentsCorrections references by the CitationGraphBuilder. Edges are stored in compressed sparse row
+ * format, once in the forward (citing to cited) and once in the reverse (cited to citing) direction, in a file that is memory-mapped when loaded.
+ * <p>
+ * Edges are packed into longs as (source << 36) | (target << 8) | refType. PMIDs must be smaller than 2^27, so the source never reaches the sign
+ * bit and sorting the packed edges as signed longs sorts them by source.
+ */
+public class CitationGraph {
+
+    public static final int MAX_PMID = (1 << 27) - 1;
+    private static final int MAGIC = 0x43475246; // "CGRF"
+    private static final int VERSION = 1;
+
+    private final String[] refTypes;
+    private final Direction forward;
+    private final Direction reverse;
+
+    public interface EdgeConsumer {
+        void accept(int pmid, String refType);
+    }
+
+    private CitationGraph(String[] refTypes, Direction forward, Direction reverse) {
+        this.refTypes = refTypes;
+        this.forward = forward;
+        this.reverse = reverse;
+    }
+
+    static long pack(int source, int target, int refType) {
+        return ((long) source << 36) | ((long) target << 8) | refType;
+    }
+
+    static int getSource(long edge) {
+        return (int) (edge >>> 36);
+    }
+
+    static int getTarget(long edge) {
+        return (int) ((edge >>> 8) & MAX_PMID);
+    }
+
+    static int getRefType(long edge) {
+        return (int) (edge & 0xFF);
+    }
+
+    /**
+     * Writes the sorted, distinct forward edges to the file
+     */
+    static void write(Path path, List<String> refTypes, long[] forwardEdges, int edgeCount) {
+        long[] reverseEdges = new long[edgeCount];
+        for (int i = 0; i < edgeCount; i++)
+            reverseEdges[i] = pack(getTarget(forwardEdges[i]), getSource(forwardEdges[i]), getRefType(forwardEdges[i]));
+        Arrays.sort(reverseEdges);
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(refTypes.size());
+            for (String refType : refTypes) {
+                byte[] bytes = refType.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            writeDirection(out, forwardEdges, edgeCount);
+            writeDirection(out, reverseEdges, edgeCount);
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing citation graph to " + path, e);
+        }
+        try {
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Error replacing citation graph file " + path, e);
+        }
+    }
+
+    /**
+     * Section layout: node count, edge count, nodes (sorted source PMIDs), offsets (node count + 1), targets, ref types (one byte per edge, padded to a
+     * multiple of 4 bytes so the next section stays aligned).
+     */
+    private static void writeDirection(DataOutputStream out, long[] edges, int edgeCount) throws IOException {
+        int nodeCount = 0;
+        for (int i = 0; i < edgeCount; i++)
+            if (i == 0 || getSource(edges[i]) != getSource(edges[i - 1]))
+                nodeCount++;
+        out.writeInt(nodeCount);
+        out.writeInt(edgeCount);
+        for (int i = 0; i < edgeCount; i++)
+            if (i == 0 || getSource(edges[i]) != getSource(edges[i - 1]))
+                out.writeInt(getSource(edges[i]));
+        for (int i = 0; i < edgeCount; i++)
+            if (i == 0 || getSource(edges[i]) != getSource(edges[i - 1]))
+                out.writeInt(i);
+        out.writeInt(edgeCount);
+        for (int i = 0; i < edgeCount; i++)
+            out.writeInt(getTarget(edges[i]));
+        for (int i = 0; i < edgeCount; i++)
+            out.writeByte(getRefType(edges[i]));
+        for (int i = edgeCount; i % 4 != 0; i++)
+            out.writeByte(0);
+    }
+
+    public static CitationGraph load(Path path) {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading citation graph from " + path, e);
+        }
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+            throw new RuntimeException("File " + path + " is not a citation graph of version " + VERSION);
+        String[] refTypes = new String[buffer.getInt()];
+        for (int i = 0; i < refTypes.length; i++) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            refTypes[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        Direction forward = new Direction(buffer);
+        Direction reverse = new Direction(buffer);
+        return new CitationGraph(refTypes, forward, reverse);
+    }
+
+    public List<String> getRefTypes() {
+        return List.of(refTypes);
+    }
+
+    public int getEdgeCount() {
+        return forward.targets.limit();
+    }
+
+    /**
+     * Calls the consumer for every PMID referred to by the citation
+     */
+    public void forEachCited(int pmid, EdgeConsumer consumer) {
+        forward.forEach(pmid, refTypes, consumer);
+    }
+
+    /**
+     * Calls the consumer for every PMID referring to the citation
+     */
+    public void forEachCiting(int pmid, EdgeConsumer consumer) {
+        reverse.forEach(pmid, refTypes, consumer);
+    }
+
+    /**
+     * Breadth-first traversal from the citation, following references forward (cited) or backward (citing) for at most maxHops hops.
+     *
+     * @return the PMIDs reached, excluding the start PMID
+     */
+    public RoaringBitmap traverse(int pmid, int maxHops, boolean followForward) {
+        Direction direction = followForward ? forward : reverse;
+        RoaringBitmap reached = new RoaringBitmap();
+        RoaringBitmap frontier = RoaringBitmap.bitmapOf(pmid);
+        for (int hop = 0; hop < maxHops && !frontier.isEmpty(); hop++) {
+            RoaringBitmap next = new RoaringBitmap();
+            frontier.forEach((int source) -> direction.forEachTarget(source, next::add));
+            next.andNot(reached);
+            next.remove(pmid);
+            reached.or(next);
+            frontier = next;
+        }
+        return reached;
+    }
+
+    /**
+     * Iterates over all edges in the forward direction, in order of source and target
+     */
+    void forEachEdge(LongConsumer consumer) {
+        for (int node = 0; node < forward.nodes.limit(); node++)
+            for (int i = forward.offsets.get(node); i < forward.offsets.get(node + 1); i++)
+                consumer.accept(pack(forward.nodes.get(node), forward.targets.get(i), forward.types.get(i) & 0xFF));
+    }
+
+    private static class Direction {
+        private final IntBuffer nodes;
+        private final IntBuffer offsets;
+        private final IntBuffer targets;
+        private final ByteBuffer types;
+
+        private Direction(ByteBuffer buffer) {
+            int nodeCount = buffer.getInt();
+            int edgeCount = buffer.getInt();
+            nodes = slice(buffer, nodeCount);
+            offsets = slice(buffer, nodeCount + 1);
+            targets = slice(buffer, edgeCount);
+            types = buffer.slice().limit(edgeCount).slice();
+            buffer.position(buffer.position() + (edgeCount + 3) / 4 * 4);
+        }
+
+        private static IntBuffer slice(ByteBuffer buffer, int length) {
+            IntBuffer slice = buffer.slice().asIntBuffer().limit(length).slice();
+            buffer.position(buffer.position() + length * Integer.BYTES);
+            return slice;
+        }
+
+        private int findNode(int pmid) {
+            int low = 0;
+            int high = nodes.limit() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int value = nodes.get(mid);
+                if (value < pmid)
+                    low = mid + 1;
+                else if (value > pmid)
+                    high = mid - 1;
+                else
+                    return mid;
+            }
+            return -1;
+        }
+
+        private void forEach(int pmid, String[] refTypes, EdgeConsumer consumer) {
+            int node = findNode(pmid);
+            if (node != -1)
+                for (int i = offsets.get(node); i < offsets.get(node + 1); i++)
+                    consumer.accept(targets.get(i), refTypes[types.get(i) & 0xFF]);
+        }
+
+        private void forEachTarget(int pmid, IntConsumer consumer) {
+            int node = findNode(pmid);
+            if (node != -1)
+                for (int i = offsets.get(node); i < offsets.get(node + 1); i++)
+                    consumer.accept(targets.get(i));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.medlineXmlToDatabase;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maintains the citation graph file while citations are parsed. Each CommentsCorrections reference becomes an edge from the citing PMID to the
+ * referenced PMID, labeled with its RefType. Edges belong to the citing citation, so they are removed when that citation is deleted or replaced.
+ * <p>
+ * The existing graph is loaded at the start of a run, and the file is rewritten when the run completes. Nodes are PMIDs, so only version 1 of each
+ * citation is included, and rows and deletions of other versions are ignored.
+ */
+public class CitationGraphBuilder extends CommittedCitationListener {
+
+    public static final String COMMENTS_CORRECTIONS_TABLE = "MedlineCitation_CommentsCorrectionsList_CommentsCorrections";
+    private static final Logger log = LogManager.getLogger(CitationGraphBuilder.class.getName());
+    private static final int MAX_REF_TYPES = 256;
+
+    private final Path path;
+    private final List<String> refTypes = new ArrayList<>();
+    private long[] edges = new long[1024];
+    private int edgeCount = 0;
+    private int flushedEdgeCount = 0;
+    private final RoaringBitmap addedPmids = new RoaringBitmap();
+    private final RoaringBitmap deletedPmids = new RoaringBitmap();
+
+    /**
+     * Opens the graph at the given path, starting empty if the file does not exist yet
+     */
+    public CitationGraphBuilder(Path path) {
+        this.path = path;
+        if (Files.exists(path)) {
+            CitationGraph graph = CitationGraph.load(path);
+            refTypes.addAll(graph.getRefTypes());
+            edges = new long[Math.max(1024, graph.getEdgeCount() * 2)];
+            graph.forEachEdge(this::addEdge);
+            flushedEdgeCount = edgeCount;
+        }
+        log.info("Loaded citation graph with {} edges", edgeCount);
+    }
+
+    @Override
+    protected void committedRow(String table, Map<String, String> field2Value) {
+        if (!table.equalsIgnoreCase(COMMENTS_CORRECTIONS_TABLE) || !isFirstVersion(field2Value.get(MedlineCitationParser.PMID_VERSION_CONSTANT)))
+            return;
+        String otherPmid = field2Value.get("Other_PMID");
+        String refType = field2Value.get("RefType");
+        if (otherPmid == null || refType == null)
+            return;
+        int citing = Integer.parseInt(field2Value.get("PMID"));
+        int cited;
+        try {
+            cited = Integer.parseInt(otherPmid.trim());
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (citing > CitationGraph.MAX_PMID || cited > CitationGraph.MAX_PMID || cited <= 0) {
+            log.warn("Ignoring reference from PMID {} to PMID {}, PMID out of range", citing, cited);
+            return;
+        }
+        addEdge(CitationGraph.pack(citing, cited, getRefTypeId(refType)));
+        addedPmids.add(citing);
+    }
+
+    @Override
+    protected void committedDeleteCitation(String pmid, String pmidVersion) {
+        if (!isFirstVersion(pmidVersion))
+            return;
+        int intPmid = Integer.parseInt(pmid);
+        // Deletions are applied to the edges that were present before the flush, so edges added in this run must be flushed before they can be removed:
+        if (addedPmids.contains(intPmid))
+            flush();
+        deletedPmids.add(intPmid);
+    }
+
+    @Override
+    public void close() {
+        flush();
+        Arrays.sort(edges, 0, edgeCount);
+        int distinctCount = 0;
+        for (int i = 0; i < edgeCount; i++)
+            if (distinctCount == 0 || edges[i] != edges[distinctCount - 1])
+                edges[distinctCount++] = edges[i];
+        edgeCount = distinctCount;
+        log.info("Writing citation graph with {} edges to {}", edgeCount, path);
+        CitationGraph.write(path, refTypes, edges, edgeCount);
+    }
+
+    private static boolean isFirstVersion(String pmidVersion) {
+        return pmidVersion == null || pmidVersion.equals("1");
+    }
+
+    private int getRefTypeId(String refType) {
+        int id = refTypes.indexOf(refType);
+        if (id == -1) {
+            if (refTypes.size() == MAX_REF_TYPES)
+                throw new RuntimeException("More than " + MAX_REF_TYPES + " reference types found");
+            refTypes.add(refType);
+            id = refTypes.size() - 1;
+        }
+        return id;
+    }
+
+    private void addEdge(long edge) {
+        if (edgeCount == edges.length)
+            edges = Arrays.copyOf(edges, edgeCount * 2);
+        edges[edgeCount++] = edge;
+    }
+
+    /**
+     * Removes the outgoing edges of deleted citations from the edges present at the previous flush, keeping the edges added since.
+     */
+    private void flush() {
+        if (!deletedPmids.isEmpty()) {
+            int kept = 0;
+            for (int i = 0; i < edgeCount; i++)
+                if (i >= flushedEdgeCount || !deletedPmids.contains(CitationGraph.getSource(edges[i])))
+                    edges[kept++] = edges[i];
+            edgeCount = kept;
+            deletedPmids.clear();
+        }
+        addedPmids.clear();
+        flushedEdgeCount = edgeCount;
+    }
+}
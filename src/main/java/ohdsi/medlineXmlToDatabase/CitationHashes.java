@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.medlineXmlToDatabase;
+
+import ohdsi.databases.ConnectionWrapper;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps a hash of the content of each citation in the medline_citation_hash table, so a revision in an update file that does not change any of the
+ * loaded values can be skipped instead of deleting and re-inserting the citation. The hash covers the flattened rows of the citation as produced by
+ * the parser, before they are adapted to the database (lookup IDs, truncation), with the fields of each row in alphabetical order.
+ */
+public class CitationHashes {
+
+    public static final String TABLE_NAME = "medline_citation_hash";
+    private static final List<String> FIELDS = List.of("pmid", "pmid_version", "hash");
+
+    private final ConnectionWrapper connectionWrapper;
+    private final MessageDigest digest;
+
+    public CitationHashes(ConnectionWrapper connectionWrapper) {
+        this.connectionWrapper = connectionWrapper;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void createTable(ConnectionWrapper connectionWrapper, int pmidPartitionSize) {
+        connectionWrapper.createTable(TABLE_NAME, FIELDS, List.of("int", "int", "bigint"), List.of("pmid", "pmid_version"), pmidPartitionSize);
+    }
+
+    /**
+     * Computes the hash of the rows of a citation, in the order in which they were parsed
+     */
+    public long computeHash(List<Map.Entry<String, Map<String, String>>> rows) {
+        digest.reset();
+        for (Map.Entry<String, Map<String, String>> row : rows) {
+            update(row.getKey());
+            for (Map.Entry<String, String> field : new TreeMap<>(row.getValue()).entrySet()) {
+                update(field.getKey());
+                update(field.getValue());
+            }
+            digest.update((byte) '\n');
+        }
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    private void update(String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    /**
+     * @return the stored hash of the citation, or null if there is none
+     */
+    public Long getHash(String pmid, String pmidVersion) {
+        String hash = connectionWrapper.getValueForPMIDAndVersion(TABLE_NAME, "hash", pmid, pmidVersion);
+        return hash == null ? null : Long.valueOf(hash);
+    }
+
+    /**
+     * Stores the hash of a citation whose stored hash, if any, has already been deleted. In batch mode, the row is inserted with the batch.
+     */
+    public void insert(String pmid, String pmidVersion, long hash) {
+        connectionWrapper.insertTypedValues(TABLE_NAME, FIELDS, Integer.parseInt(pmid), Integer.parseInt(pmidVersion), hash);
+    }
+
+    public void delete(String pmid, String pmidVersion) {
+        connectionWrapper.deleteForPMIDAndVersion(TABLE_NAME, pmid, pmidVersion);
+    }
+}
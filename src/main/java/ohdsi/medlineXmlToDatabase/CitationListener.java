@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.medlineXmlToDatabase;
+
+import java.util.Map;
+
+/**
+ * Receives the rows of each citation as they are parsed, so other stores can be kept in sync with the database without querying it afterwards. Rows
+ * contain the original (not lookup-encoded or truncated) values, keyed by the unabbreviated field names. Rows are received inside the database transaction of their batch,
+ * followed by a call to commit() or rollback().
+ */
+public interface CitationListener {
+
+    /**
+     * Called for every row written to a MedlineCitation table, including the PMID and PMID_Version keys. Sub-table rows come first, so the row of the
+     * MedlineCitation table itself is the last row of each citation.
+     */
+    void row(String table, Map<String, String> field2Value);
+
+    /**
+     * Called when an existing citation is removed, either because it is deleted or because it is about to be replaced by an update
+     */
+    void deleteCitation(String pmid, String pmidVersion);
+
+    /**
+     * Called after the rows and deletions received since the previous commit or rollback have been committed to the database
+     */
+    void commit();
+
+    /**
+     * Called when the rows and deletions received since the previous commit or rollback have been rolled back instead. Listeners that keep their own
+     * state must discard them, see {@link CommittedCitationListener}.
+     */
+    void rollback();
+
+    /**
+     * Called once all files have been parsed
+     */
+    void close();
+}
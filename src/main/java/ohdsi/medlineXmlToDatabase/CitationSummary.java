@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.medlineXmlToDatabase;
+
+import ohdsi.databases.ConnectionWrapper;
+import ohdsi.databases.DbType;
+import ohdsi.medlineXmlToDatabase.MedlineCitationAnalyser.VariableType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a denormalised table with one row per citation, holding the fields most queries need: title, abstract, journal, publication date, languages and
+ * MeSH descriptor UIs. Languages and MeSH UIs are stored as '|'-delimited lists. On PostgreSQL and MySQL the title and abstract are full-text indexed.
+ * <p>
+ * Values are collected from the rows of a citation by their full path (e.g. MedlineCitation_Article_Journal_Title), so it does not matter whether an
+ * element ended up in a sub-table or was flattened into its parent table. The MedlineCitation row is always the last row of a citation.
+ */
+public class CitationSummary implements CitationListener {
+
+    public static final String TABLE_NAME = "medline_citation_summary";
+    public static final String DELIMITER = "|";
+    private static final Logger log = LogManager.getLogger(CitationSummary.class.getName());
+    private static final String MEDLINE_CITATION = "MedlineCitation";
+    private static final String ARTICLE = MEDLINE_CITATION + "_Article";
+    private static final String ARTICLE_DATE = ARTICLE + "_ArticleDate";
+    private static final String PUB_DATE = ARTICLE + "_Journal_JournalIssue_PubDate";
+    private static final int MAX_LANGUAGES_LENGTH = 64;
+
+    private final ConnectionWrapper connectionWrapper;
+    private final Map<String, List<String>> path2Values = new HashMap<>();
+
+    public CitationSummary(ConnectionWrapper connectionWrapper) {
+        this.connectionWrapper = connectionWrapper;
+    }
+
+    public static void createTable(ConnectionWrapper connectionWrapper, int pmidPartitionSize) {
+        List<String> fields = List.of("pmid", "pmid_version", "title", "abstract", "journal", "publication_date", "languages", "mesh_uis");
+        List<VariableType> types = List.of(new VariableType(1, MedlineCitationAnalyser.MAX_PMID), new VariableType(1, 9),
+                VariableType.text(Integer.MAX_VALUE), VariableType.text(Integer.MAX_VALUE), VariableType.text(Integer.MAX_VALUE), VariableType.date(),
+                VariableType.text(MAX_LANGUAGES_LENGTH), VariableType.text(Integer.MAX_VALUE));
+        connectionWrapper.createTableUsingVariableTypes(TABLE_NAME, fields, types, List.of("pmid", "pmid_version"), pmidPartitionSize);
+        if (connectionWrapper.getDbType().equals(DbType.POSTGRESQL)) {
+            connectionWrapper.execute("ALTER TABLE " + TABLE_NAME + " ADD COLUMN search_vector TSVECTOR GENERATED ALWAYS AS "
+                    + "(to_tsvector('english', COALESCE(title, '') || ' ' || COALESCE(abstract, ''))) STORED");
+            connectionWrapper.execute("CREATE INDEX idx_" + TABLE_NAME + "_search ON " + TABLE_NAME + " USING GIN (search_vector)");
+        } else if (connectionWrapper.getDbType().equals(DbType.MYSQL) && pmidPartitionSize == 0) { // MySQL does not support full-text indices on partitioned tables
+            connectionWrapper.execute("CREATE FULLTEXT INDEX idx_" + TABLE_NAME + "_search ON " + TABLE_NAME + " (title, abstract)");
+        } else
+            log.info("Not creating a full-text index on {}. This requires a full-text catalog (SQL Server) or an unpartitioned table (MySQL)", TABLE_NAME);
+    }
+
+    @Override
+    public void row(String table, Map<String, String> field2Value) {
+        for (Map.Entry<String, String> entry : field2Value.entrySet()) {
+            String path = entry.getKey().equals("Value") ? table : table + "_" + entry.getKey();
+            path2Values.computeIfAbsent(path, p -> new ArrayList<>()).add(entry.getValue());
+        }
+        if (table.equals(MEDLINE_CITATION)) {
+            writeSummary(field2Value.get("PMID"), field2Value.get(MedlineCitationParser.PMID_VERSION_CONSTANT));
+            path2Values.clear();
+        }
+    }
+
+    private void writeSummary(String pmid, String pmidVersion) {
+        Map<String, String> field2Value = new HashMap<>();
+        field2Value.put("pmid", pmid);
+        field2Value.put("pmid_version", pmidVersion);
+        putIfNotNull(field2Value, "title", getFirst(ARTICLE + "_ArticleTitle"));
+        putIfNotNull(field2Value, "abstract", getAll(ARTICLE + "_Abstract_AbstractText", "\n"));
+        putIfNotNull(field2Value, "journal", getFirst(ARTICLE + "_Journal_Title"));
+        putIfNotNull(field2Value, "publication_date", PmidToDate.deriveDate(getFirst(ARTICLE_DATE + "_Year"), getFirst(ARTICLE_DATE + "_Month"),
+                getFirst(ARTICLE_DATE + "_Day"), getFirst(PUB_DATE + "_Year"), getFirst(PUB_DATE + "_Month"), getFirst(PUB_DATE + "_Day"),
+                getFirst(PUB_DATE + "_MedlineDate")));
+        putIfNotNull(field2Value, "languages", getAll(ARTICLE + "_Language", DELIMITER));
+        putIfNotNull(field2Value, "mesh_uis", getAll(MeshPostings.MESH_HEADING_TABLE + "_" + MeshPostings.DESCRIPTOR_UI_FIELD, DELIMITER));
+        connectionWrapper.insertIntoTable(TABLE_NAME, field2Value);
+    }
+
+    private String getFirst(String path) {
+        List<String> values = path2Values.get(path);
+        return values == null ? null : values.get(0);
+    }
+
+    private String getAll(String path, String delimiter) {
+        List<String> values = path2Values.get(path);
+        return values == null ? null : String.join(delimiter, values);
+    }
+
+    private static void putIfNotNull(Map<String, String> field2Value, String field, String value) {
+        if (value != null)
+            field2Value.put(field, value);
+    }
+
+    @Override
+    public void deleteCitation(String pmid, String pmidVersion) {
+        connectionWrapper.deleteForPMIDAndVersion(TABLE_NAME, pmid, pmidVersion);
+    }
+
+    /**
+     * The summaries are written in the transaction of their batch, so there is nothing left to do
+     */
+    @Override
+    public void commit() {
+    }
+
+    /**
+     * The summaries written are rolled back with their batch, only the values of a partially parsed citation remain
+     */
+    @Override
+    public void rollback() {
+        path2Values.clear();
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.medlineXmlToDatabase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base class for listeners that keep their state outside the database. Rows and deletions are buffered until the batch they belong to has been
+ * committed, and discarded if it is rolled back, so the state never includes citations that are not in the database.
+ */
+public abstract class CommittedCitationListener implements CitationListener {
+
+    private final List<Runnable> pending = new ArrayList<>();
+
+    /**
+     * Called for every committed row, in the order the rows were parsed
+     */
+    protected abstract void committedRow(String table, Map<String, String> field2Value);
+
+    /**
+     * Called for every committed removal of a citation, in the order of the rows
+     */
+    protected abstract void committedDeleteCitation(String pmid, String pmidVersion);
+
+    @Override
+    public void row(String table, Map<String, String> field2Value) {
+        // The parser modifies the map when inserting the row, so a copy is buffered:
+        Map<String, String> copy = new HashMap<>(field2Value);
+        pending.add(() -> committedRow(table, copy));
+    }
+
+    @Override
+    public void deleteCitation(String pmid, String pmidVersion) {
+        pending.add(() -> committedDeleteCitation(pmid, pmidVersion));
+    }
+
+    @Override
+    public void commit() {
+        pending.forEach(Runnable::run);
+        pending.clear();
+    }
+
+    @Override
+    public void rollback() {
+        pending.clear();
+    }
+}
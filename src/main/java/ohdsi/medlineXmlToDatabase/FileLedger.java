@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.medlineXmlToDatabase;
+
+import ohdsi.databases.ConnectionWrapper;
+import ohdsi.utilities.files.Row;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the xml.gz files that have been loaded completely, in the medline_file_ledger table. A file is recorded after its last batch of
+ * citations and its deletions have been committed, so after a crash the first file without a ledger entry is where the load resumes. Files are
+ * matched on name, size and SHA-256 checksum, so a file that was replaced by NLM is loaded again. The checksum is only computed when the name and
+ * size match.
+ * <p>
+ * Within a file, the number of citations committed so far is kept in the medline_file_checkpoint table. The checkpoint is written in the same
+ * transaction as the batch of citations it covers, so a resumed load can skip exactly the citations that were committed.
+ * <p>
+ * Listeners that keep their state outside the database, such as the MeSH postings, only write it when the run completes. Files loaded while such
+ * listeners were active are recorded as not yet seen by the listeners until markListenersSynced() is called after the listeners have been closed. If
+ * the run fails before then, the next run has to pass these files, and the checkpointed citations, to the listeners again.
+ */
+public class FileLedger {
+
+    public static final String TABLE_NAME = "medline_file_ledger";
+    public static final String CHECKPOINT_TABLE_NAME = "medline_file_checkpoint";
+    private static final List<String> FIELDS = List.of("file_name", "file_size", "checksum", "citations", "deletions", "duration_ms", "load_date",
+            "listeners_synced");
+
+    private final ConnectionWrapper connectionWrapper;
+    private final boolean committedListeners;
+    private final Map<String, Long> fileNameToSize = new HashMap<>();
+    private final Map<String, String> fileNameToChecksum = new HashMap<>();
+    private final Map<File, String> fileToComputedChecksum = new HashMap<>();
+    private final Set<String> unsyncedFileNames = new HashSet<>();
+    private final Map<String, Long> checkpointFileNameToSize = new HashMap<>();
+    private final Map<String, Integer> checkpointFileNameToCitations = new HashMap<>();
+
+    /**
+     * @param committedListeners true if listeners that keep their state outside the database are active in this run
+     */
+    public FileLedger(ConnectionWrapper connectionWrapper, boolean committedListeners) {
+        this.connectionWrapper = connectionWrapper;
+        this.committedListeners = committedListeners;
+        for (Row row : connectionWrapper.query("SELECT file_name, file_size, checksum, listeners_synced FROM " + TABLE_NAME)) {
+            fileNameToSize.put(row.get("file_name"), Long.parseLong(row.get("file_size")));
+            fileNameToChecksum.put(row.get("file_name"), row.get("checksum"));
+            if (row.get("listeners_synced").equals("0"))
+                unsyncedFileNames.add(row.get("file_name"));
+        }
+        for (Row row : connectionWrapper.query("SELECT file_name, file_size, committed_citations FROM " + CHECKPOINT_TABLE_NAME)) {
+            checkpointFileNameToSize.put(row.get("file_name"), Long.parseLong(row.get("file_size")));
+            checkpointFileNameToCitations.put(row.get("file_name"), Integer.parseInt(row.get("committed_citations")));
+        }
+    }
+
+    /**
+     * Creates the ledger and checkpoint tables if they do not exist yet
+     */
+    public static void createTables(ConnectionWrapper connectionWrapper, String schema) {
+        List<String> tableNames = connectionWrapper.getTableNames(schema);
+        if (!tableNames.contains(TABLE_NAME)) {
+            List<String> types = new ArrayList<String>();
+            types.add("varchar(255)");
+            types.add("bigint");
+            types.add("varchar(64)");
+            types.add("int");
+            types.add("int");
+            types.add("bigint");
+            types.add("date");
+            types.add("int");
+            connectionWrapper.createTable(TABLE_NAME, FIELDS, types, List.of("file_name"));
+        }
+        if (!tableNames.contains(CHECKPOINT_TABLE_NAME))
+            connectionWrapper.createTable(CHECKPOINT_TABLE_NAME, List.of("file_name", "file_size", "committed_citations"),
+                    List.of("varchar(255)", "bigint", "int"), List.of("file_name"));
+    }
+
+    public static void dropTables(ConnectionWrapper connectionWrapper) {
+        connectionWrapper.dropTableIfExists(TABLE_NAME);
+        connectionWrapper.dropTableIfExists(CHECKPOINT_TABLE_NAME);
+    }
+
+    /**
+     * @return true if a file with the same name, size and checksum has been loaded before
+     */
+    public boolean isLoaded(File file) {
+        Long size = fileNameToSize.get(file.getName());
+        return size != null && size == file.length() && getChecksum(file).equals(fileNameToChecksum.get(file.getName()));
+    }
+
+    private String getChecksum(File file) {
+        return fileToComputedChecksum.computeIfAbsent(file, f -> {
+            try (ChecksumInputStream checksumInputStream = new ChecksumInputStream(new FileInputStream(f))) {
+                checksumInputStream.finish();
+                return checksumInputStream.getChecksum();
+            } catch (IOException e) {
+                throw new RuntimeException("Error computing the checksum of " + f, e);
+            }
+        });
+    }
+
+    /**
+     * @return true if the file was loaded by a run that did not get to write the state of its listeners that keep their state outside the database
+     */
+    public boolean isUnsyncedWithListeners(File file) {
+        return unsyncedFileNames.contains(file.getName());
+    }
+
+    /**
+     * @return true if a file with the same name but a different size or checksum has been loaded before
+     */
+    public boolean isChanged(File file) {
+        return fileNameToSize.containsKey(file.getName()) && !isLoaded(file);
+    }
+
+    /**
+     * @return the number of citations at the start of the file that were committed by an earlier, interrupted run, or 0 if the file has changed since
+     */
+    public int getCommittedCitations(File file) {
+        Long size = checkpointFileNameToSize.get(file.getName());
+        return size != null && size == file.length() ? checkpointFileNameToCitations.get(file.getName()) : 0;
+    }
+
+    /**
+     * Adds the statements updating the checkpoint of the file to the current batch, so they are committed together with the citations they cover.
+     */
+    public void checkpoint(File file, int committedCitations) {
+        String fileName = escape(file.getName());
+        connectionWrapper.execute("DELETE FROM " + CHECKPOINT_TABLE_NAME + " WHERE file_name = '" + fileName + "'");
+        connectionWrapper.execute("INSERT INTO " + CHECKPOINT_TABLE_NAME + " (file_name, file_size, committed_citations) VALUES ('" + fileName + "', "
+                + file.length() + ", " + committedCitations + ")");
+    }
+
+    /**
+     * Records a completely loaded file, replacing the entry of an earlier version of the file, and removes its checkpoint in the same transaction.
+     * Should be called outside batch mode, after the citations of the file have been committed.
+     */
+    public void record(File file, String checksum, int citations, int deletions, long durationMs) {
+        String fileName = escape(file.getName());
+        connectionWrapper.setBatchMode(true);
+        try {
+            if (fileNameToSize.containsKey(file.getName()))
+                connectionWrapper.execute("DELETE FROM " + TABLE_NAME + " WHERE file_name = '" + fileName + "'");
+            connectionWrapper.insertTypedValues(TABLE_NAME, FIELDS, file.getName(), file.length(), checksum, citations, deletions, durationMs,
+                    Date.valueOf(LocalDate.now()), committedListeners ? 0 : 1);
+            connectionWrapper.execute("DELETE FROM " + CHECKPOINT_TABLE_NAME + " WHERE file_name = '" + fileName + "'");
+            connectionWrapper.setBatchMode(false);
+        } catch (RuntimeException e) {
+            connectionWrapper.abortBatch();
+            throw e;
+        }
+        fileNameToSize.put(file.getName(), file.length());
+        fileNameToChecksum.put(file.getName(), checksum);
+        fileToComputedChecksum.put(file, checksum);
+        if (committedListeners)
+            unsyncedFileNames.add(file.getName());
+        else
+            unsyncedFileNames.remove(file.getName());
+        checkpointFileNameToSize.remove(file.getName());
+        checkpointFileNameToCitations.remove(file.getName());
+    }
+
+    /**
+     * Records that the listeners have written their state, including all files loaded so far. Should be called after the listeners have been closed.
+     */
+    public void markListenersSynced() {
+        connectionWrapper.execute("UPDATE " + TABLE_NAME + " SET listeners_synced = 1 WHERE listeners_synced = 0");
+        unsyncedFileNames.clear();
+    }
+
+    private static String escape(String value) {
+        return value.replace("'", "''");
+    }
+}
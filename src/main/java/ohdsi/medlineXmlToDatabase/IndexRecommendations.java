@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.medlineXmlToDatabase;
+
+import ohdsi.databases.ConnectionWrapper;
+import ohdsi.medlineXmlToDatabase.MedlineCitationAnalyser.VariableType;
+import ohdsi.utilities.files.Row;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The secondary indices chosen by the analyser are stored in a table, so they can be created once the data has been loaded. Indices are much cheaper to
+ * build in one go than to maintain during a baseline load.
+ */
+public class IndexRecommendations {
+
+    public static final String TABLE_NAME = "medline_index";
+    public static final String DESCRIPTOR_UI = "Descriptor UI";
+    public static final String IDENTIFIER = "High-selectivity identifier";
+    private static final Logger log = LogManager.getLogger(IndexRecommendations.class.getName());
+    private static final int MAX_NAME_LENGTH = 255;
+
+    public static void createTable(ConnectionWrapper connectionWrapper) {
+        List<String> fields = List.of("table_name", "column_name", "reason");
+        List<VariableType> types = List.of(VariableType.text(MAX_NAME_LENGTH), VariableType.text(MAX_NAME_LENGTH), VariableType.text(MAX_NAME_LENGTH));
+        connectionWrapper.createTableUsingVariableTypes(TABLE_NAME, fields, types, List.of("table_name", "column_name"));
+    }
+
+    public static Row createRow(String table, String field, String reason) {
+        Row row = new Row();
+        row.add("table_name", Abbreviator.abbreviate(table));
+        row.add("column_name", Abbreviator.abbreviate(field));
+        row.add("reason", reason);
+        return row;
+    }
+
+    public static void printReport(List<Row> rows) {
+        System.out.println("Recommended indices (join keys PMID, PMID_Version and *_Order are covered by the primary keys):");
+        for (Row row : rows)
+            System.out.println("- " + row.get("table_name") + " (" + row.get("column_name") + "): " + row.get("reason"));
+    }
+
+    /**
+     * Creates all indices recommended by the analyser that do not exist yet.
+     */
+    public static void createIndices(ConnectionWrapper connectionWrapper, String schema) {
+        if (!connectionWrapper.getTableNames(schema).contains(TABLE_NAME)) {
+            log.warn("Table {} not found. Run the analysis first to get index recommendations", TABLE_NAME);
+            return;
+        }
+        List<Row> rows = new ArrayList<>();
+        connectionWrapper.query("SELECT table_name, column_name, reason FROM " + TABLE_NAME).forEach(rows::add);
+        for (Row row : rows) {
+            log.info("Creating index on {} ({}): {}", row.get("table_name"), row.get("column_name"), row.get("reason"));
+            connectionWrapper.createIndex(row.get("table_name"), row.get("column_name"));
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.medlineXmlToDatabase;
+
+import ohdsi.corpusGenerator.CorpusGeneratorMain;
+import ohdsi.databases.ConnectionWrapper;
+import ohdsi.databases.DbType;
+import ohdsi.utilities.files.IniFile;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the analyser and the parser on a corpus against an embedded H2 database, and writes the time, peak heap and throughput of each stage to a JSON
+ * file. The corpus is either an existing folder with baseline and updates subfolders, or a synthetic corpus generated using the GENERATOR_* settings.
+ * <p>
+ * If a baseline result file is specified, the results are compared to it, and stages that are slower or use more heap than the tolerance allows are
+ * reported as regressions. The process then exits with status 1, so the benchmark can be used as a check in a build.
+ */
+public class IngestionBenchmark {
+
+    private static final Logger log = LogManager.getLogger(IngestionBenchmark.class.getName());
+    private static final String SCHEMA = "medline";
+    private static final Pattern STAGE_PATTERN = Pattern.compile("^\\s*\"(\\w+)\": \\{\"seconds\": ([0-9.]+), \"peak_heap_mb\": ([0-9.]+)"
+            + "(?:, \"files\": \\d+, \"citations\": \\d+, \"citations_per_second\": ([0-9.]+))?");
+
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+
+    public static void main(String[] args) {
+        IniFile iniFile = new IniFile(args[0]);
+        File folder = new File(get(iniFile, "BENCHMARK_FOLDER", new File(System.getProperty("java.io.tmpdir"), "medline_benchmark").getPath()));
+        File resultFile = new File(get(iniFile, "BENCHMARK_RESULT_FILE", new File(folder, "benchmark.json").getPath()));
+        if (!folder.exists() && !folder.mkdirs())
+            throw new RuntimeException("Could not create folder " + folder);
+
+        IngestionBenchmark benchmark = new IngestionBenchmark();
+        benchmark.run(iniFile, folder);
+        List<String> regressions = new ArrayList<>();
+        if (!iniFile.get("BENCHMARK_BASELINE_FILE").equals(""))
+            regressions = benchmark.compare(new File(iniFile.get("BENCHMARK_BASELINE_FILE")),
+                    Double.parseDouble(get(iniFile, "BENCHMARK_TOLERANCE", "0.2")));
+        benchmark.writeResult(resultFile, regressions);
+        log.info("Wrote benchmark results to {}", resultFile);
+        if (!regressions.isEmpty()) {
+            log.error("Found {} regressions", regressions.size());
+            System.exit(1);
+        }
+    }
+
+    private void run(IniFile iniFile, File folder) {
+        File corpus;
+        if (iniFile.get("BENCHMARK_CORPUS").equals("")) {
+            corpus = new File(folder, "corpus");
+            measure("generate", () -> CorpusGeneratorMain.generate(iniFile, corpus));
+        } else
+            corpus = new File(iniFile.get("BENCHMARK_CORPUS"));
+        File baselineFolder = new File(corpus, "baseline");
+        File updatesFolder = new File(corpus, "updates");
+        boolean citationSummary = iniFile.get("CITATION_SUMMARY").equalsIgnoreCase("true");
+
+        for (String extension : new String[]{".mv.db", ".trace.db"})
+            new File(folder, "db" + extension).delete();
+        String server = new File(folder, "db").getAbsolutePath();
+
+        measure("analyse", () -> {
+            MedlineAnalyserMain analyser = new MedlineAnalyserMain();
+            analyser.analyseFolder(baselineFolder.getPath());
+            analyser.createDatabase(server, SCHEMA, "sa", "", DbType.H2.name(), "true", iniFile.get("USE_LOOKUP_TABLES"),
+                    iniFile.get("NARROW_COLUMN_TYPES"), "", iniFile.get("CITATION_SUMMARY"));
+        });
+
+        try (ConnectionWrapper connectionWrapper = new ConnectionWrapper(server, "sa", "", DbType.H2)) {
+            connectionWrapper.use(SCHEMA);
+            parse("parse_baseline", baselineFolder, connectionWrapper, "BASELINE", citationSummary);
+            if (countFiles(updatesFolder) != 0)
+                parse("parse_updates", updatesFolder, connectionWrapper, "", citationSummary);
+        }
+    }
+
+    private void parse(String name, File folder, ConnectionWrapper connectionWrapper, String baseLine, boolean citationSummary) {
+        MedlineParserMain parser = new MedlineParserMain();
+        RowCounter rowCounter = new RowCounter();
+        parser.addListener(rowCounter);
+        Stage stage = measure(name, () -> parser.parseFolder(folder.getPath(), connectionWrapper, SCHEMA, baseLine, false, "", "", citationSummary));
+        stage.files = countFiles(folder);
+        stage.tableToRows = rowCounter.tableToRows;
+        log.info("{}: {} citations per second", name, format(stage.getCitationsPerSecond()));
+    }
+
+    private Stage measure(String name, Runnable runnable) {
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        long start = System.nanoTime();
+        runnable.run();
+        Stage stage = new Stage();
+        stage.seconds = (System.nanoTime() - start) / 1e9;
+        // The pools do not peak at the same time, so the sum is an upper bound of the peak heap usage:
+        for (MemoryPoolMXBean pool : heapPools)
+            stage.peakHeapMb += pool.getPeakUsage().getUsed() / (1024d * 1024d);
+        stages.put(name, stage);
+        log.info("Stage {} took {} seconds, with a peak heap usage of {} MB", name, format(stage.seconds), format(stage.peakHeapMb));
+        return stage;
+    }
+
+    /**
+     * Compares the stages with those in a previous result file. Throughput is compared for parse stages, and time for the other stages. Generating the
+     * corpus is not part of the loader, so it is not compared.
+     */
+    private List<String> compare(File baselineFile, double tolerance) {
+        Map<String, double[]> baselineStages = new HashMap<>();
+        try {
+            for (String line : Files.readAllLines(baselineFile.toPath(), StandardCharsets.UTF_8)) {
+                Matcher matcher = STAGE_PATTERN.matcher(line);
+                if (matcher.find())
+                    baselineStages.put(matcher.group(1), new double[]{Double.parseDouble(matcher.group(2)), Double.parseDouble(matcher.group(3)),
+                            matcher.group(4) == null ? Double.NaN : Double.parseDouble(matcher.group(4))});
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading baseline result " + baselineFile, e);
+        }
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, Stage> entry : stages.entrySet()) {
+            String name = entry.getKey();
+            Stage stage = entry.getValue();
+            double[] baseline = baselineStages.get(name);
+            if (baseline == null || name.equals("generate"))
+                continue;
+            if (stage.tableToRows != null && !Double.isNaN(baseline[2])) {
+                if (stage.getCitationsPerSecond() < baseline[2] * (1 - tolerance))
+                    regressions.add(String.format(Locale.ROOT, "%s: %.1f citations per second, was %.1f", name, stage.getCitationsPerSecond(), baseline[2]));
+            } else if (stage.seconds > baseline[0] * (1 + tolerance))
+                regressions.add(String.format(Locale.ROOT, "%s: %.1f seconds, was %.1f", name, stage.seconds, baseline[0]));
+            if (stage.peakHeapMb > baseline[1] * (1 + tolerance))
+                regressions.add(String.format(Locale.ROOT, "%s: peak heap usage of %.1f MB, was %.1f", name, stage.peakHeapMb, baseline[1]));
+        }
+        for (String regression : regressions)
+            log.warn("Regression in {}", regression);
+        return regressions;
+    }
+
+    /**
+     * Writes the results as JSON, with one line per stage so results can be compared without a JSON parser
+     */
+    private void writeResult(File resultFile, List<String> regressions) {
+        List<String> lines = new ArrayList<>();
+        lines.add("{");
+        lines.add("  \"java_version\": \"" + System.getProperty("java.version") + "\",");
+        lines.add("  \"stages\": {");
+        int count = 0;
+        for (Map.Entry<String, Stage> entry : stages.entrySet()) {
+            Stage stage = entry.getValue();
+            StringBuilder line = new StringBuilder("    \"" + entry.getKey() + "\": {\"seconds\": " + format(stage.seconds) + ", \"peak_heap_mb\": "
+                    + format(stage.peakHeapMb));
+            if (stage.tableToRows != null) {
+                line.append(", \"files\": ").append(stage.files);
+                line.append(", \"citations\": ").append(stage.getCitations());
+                line.append(", \"citations_per_second\": ").append(format(stage.getCitationsPerSecond()));
+                line.append(", \"seconds_per_file\": ").append(format(stage.files == 0 ? 0 : stage.seconds / stage.files));
+                line.append(", \"rows_per_second\": {");
+                int tableCount = 0;
+                for (Map.Entry<String, Long> tableEntry : new TreeMap<>(stage.tableToRows).entrySet())
+                    line.append(tableCount++ == 0 ? "" : ", ").append('"').append(tableEntry.getKey()).append("\": ")
+                            .append(format(tableEntry.getValue() / stage.seconds));
+                line.append('}');
+            }
+            line.append(++count < stages.size() ? "}," : "}");
+            lines.add(line.toString());
+        }
+        lines.add("  },");
+        StringBuilder line = new StringBuilder("  \"regressions\": [");
+        for (int i = 0; i < regressions.size(); i++)
+            line.append(i == 0 ? "" : ", ").append('"').append(regressions.get(i).replace("\"", "\\\"")).append('"');
+        lines.add(line.append(']').toString());
+        lines.add("}");
+        try {
+            Files.write(resultFile.toPath(), lines, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing " + resultFile, e);
+        }
+    }
+
+    private static int countFiles(File folder) {
+        File[] files = folder.listFiles((dir, name) -> name.endsWith("xml.gz"));
+        return files == null ? 0 : files.length;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String get(IniFile iniFile, String key, String defaultValue) {
+        String value = iniFile.get(key);
+        return value.isEmpty() ? defaultValue : value;
+    }
+
+    private static class Stage {
+        private double seconds;
+        private double peakHeapMb;
+        private int files;
+        private Map<String, Long> tableToRows;
+
+        private long getCitations() {
+            return tableToRows.getOrDefault(MedlineCitationParser.MEDLINE_CITATION, 0L);
+        }
+
+        private double getCitationsPerSecond() {
+            return getCitations() / seconds;
+        }
+    }
+
+    /**
+     * Counts the rows written per table. The row of the MedlineCitation table is written once per citation.
+     */
+    private static class RowCounter extends CommittedCitationListener {
+        private final Map<String, Long> tableToRows = new HashMap<>();
+
+        @Override
+        protected void committedRow(String table, Map<String, String> field2Value) {
+            tableToRows.merge(table, 1L, Long::sum);
+        }
+
+        @Override
+        protected void committedDeleteCitation(String pmid, String pmidVersion) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
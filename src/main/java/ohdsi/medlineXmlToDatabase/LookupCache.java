@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.medlineXmlToDatabase;
+
+import ohdsi.databases.ConnectionWrapper;
+import ohdsi.medlineXmlToDatabase.MedlineCitationAnalyser.VariableType;
+import ohdsi.utilities.files.Row;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Low-cardinality text fields (languages, publication types, journal titles, etc.) can be stored as integer IDs referring to a single lookup table. This
+ * class creates the lookup table and the views that restore the original text values, and keeps an in-memory copy of the lookup table so the parser can
+ * replace values with their IDs.
+ */
+public class LookupCache {
+
+    public static final String TABLE_NAME = "medline_lookup";
+    public static final String VIEW_POSTFIX = "_view";
+    public static final int MAX_LOOKUP_ID = 100_000_000;
+    private static final int MAX_COLUMN_NAME_LENGTH = 255;
+
+    private final ConnectionWrapper connectionWrapper;
+    private final Map<String, Map<String, Map<String, Integer>>> table2Field2Lookup = new HashMap<>();
+    private final Map<String, Integer> column2MaxId = new HashMap<>();
+
+    /**
+     * Loads the current content of the lookup table. If the table does not exist, no fields are encoded.
+     */
+    public LookupCache(ConnectionWrapper connectionWrapper, String schema) {
+        this.connectionWrapper = connectionWrapper;
+        if (connectionWrapper.getTableNames(schema).contains(TABLE_NAME))
+            load();
+    }
+
+    /**
+     * Discards the values added since the last commit, by reloading the lookup table. Should be called after rolling back a batch.
+     */
+    public void reload() {
+        if (table2Field2Lookup.isEmpty())
+            return;
+        table2Field2Lookup.clear();
+        column2MaxId.clear();
+        load();
+    }
+
+    private void load() {
+        for (Row row : connectionWrapper.query("SELECT column_name, lookup_id, value FROM " + TABLE_NAME)) {
+            String columnName = row.get("column_name");
+            int separator = columnName.lastIndexOf('.');
+            String table = columnName.substring(0, separator);
+            String field = columnName.substring(separator + 1);
+            int id = Integer.parseInt(row.get("lookup_id"));
+            table2Field2Lookup.computeIfAbsent(table, t -> new HashMap<>()).computeIfAbsent(field, f -> new HashMap<>()).put(row.get("value"), id);
+            column2MaxId.merge(columnName, id, Math::max);
+        }
+    }
+
+    public static void createTable(ConnectionWrapper connectionWrapper) {
+        List<String> fields = List.of("column_name", "lookup_id", "value");
+        List<VariableType> types = List.of(VariableType.text(MAX_COLUMN_NAME_LENGTH), new VariableType(1, MAX_LOOKUP_ID), VariableType.text(Integer.MAX_VALUE));
+        connectionWrapper.createTableUsingVariableTypes(TABLE_NAME, fields, types, List.of("column_name", "lookup_id"));
+    }
+
+    /**
+     * Creates a view with the same columns as the table, but with the lookup IDs replaced by their values.
+     */
+    public static void createView(ConnectionWrapper connectionWrapper, String table, List<String> fields, List<String> lookupFields) {
+        String dbTable = Abbreviator.abbreviate(table);
+        StringBuilder select = new StringBuilder();
+        StringBuilder joins = new StringBuilder();
+        for (String field : fields) {
+            String dbField = Abbreviator.abbreviate(field);
+            if (select.length() != 0)
+                select.append(", ");
+            int index = lookupFields.indexOf(field);
+            if (index == -1) {
+                select.append("t.").append(dbField);
+            } else {
+                String alias = "l" + index;
+                select.append(alias).append(".value AS ").append(dbField);
+                joins.append(" LEFT JOIN ").append(TABLE_NAME).append(" ").append(alias);
+                joins.append(" ON ").append(alias).append(".column_name = '").append(getColumnName(table, field)).append("'");
+                joins.append(" AND ").append(alias).append(".lookup_id = t.").append(dbField);
+            }
+        }
+        connectionWrapper.createView(dbTable + VIEW_POSTFIX, "SELECT " + select + " FROM " + dbTable + " t" + joins);
+    }
+
+    /**
+     * Creates the rows to insert in the lookup table for the given values, numbered from 1.
+     */
+    public static List<Row> createRows(String table, String field, Collection<String> values) {
+        String columnName = getColumnName(table, field);
+        List<Row> rows = new ArrayList<>(values.size());
+        int id = 1;
+        for (String value : values) {
+            Row row = new Row();
+            row.add("column_name", columnName);
+            row.add("lookup_id", id++);
+            row.add("value", value);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static String getColumnName(String table, String field) {
+        return Abbreviator.abbreviate(table) + "." + Abbreviator.abbreviate(field);
+    }
+
+    /**
+     * Replaces the values of all encoded fields with their lookup IDs. Values not seen before are added to the lookup table.
+     */
+    public void encode(String table, Map<String, String> field2Value) {
+        if (table2Field2Lookup.isEmpty())
+            return;
+        Map<String, Map<String, Integer>> field2Lookup = table2Field2Lookup.get(Abbreviator.abbreviate(table));
+        if (field2Lookup == null)
+            return;
+        for (Map.Entry<String, String> entry : field2Value.entrySet()) {
+            Map<String, Integer> lookup = field2Lookup.get(Abbreviator.abbreviate(entry.getKey()));
+            if (lookup != null) {
+                Integer id = lookup.get(entry.getValue());
+                if (id == null) {
+                    String columnName = getColumnName(table, entry.getKey());
+                    id = column2MaxId.merge(columnName, 1, Integer::sum);
+                    lookup.put(entry.getValue(), id);
+                    connectionWrapper.insertIntoTable(TABLE_NAME, Map.of("column_name", columnName, "lookup_id", Integer.toString(id), "value", entry.getValue()));
+                }
+                entry.setValue(Integer.toString(id));
+            }
+        }
+    }
+}
@@ -15,6 +15,7 @@
  ******************************************************************************/
 package ohdsi.medlineXmlToDatabase;
 
+import ohdsi.corpusGenerator.CorpusGeneratorMain;
 import ohdsi.meshXmlToDatabase.MeshParserMain;
 
 /**
@@ -37,6 +38,9 @@ public class MainClass {
             case ANALYSE -> MedlineAnalyserMain.main(new String[]{pathToIniFile});
             case PARSE -> MedlineParserMain.main(new String[]{pathToIniFile});
             case PARSE_MESH -> MeshParserMain.main(new String[]{pathToIniFile});
+            case REBUILD_DATES -> PmidToDateRebuilder.main(new String[]{pathToIniFile});
+            case GENERATE -> CorpusGeneratorMain.main(new String[]{pathToIniFile});
+            case BENCHMARK -> IngestionBenchmark.main(new String[]{pathToIniFile});
         }
     }
 
@@ -50,6 +54,12 @@ public class MainClass {
                     action = Action.PARSE;
                 else if (arg.equalsIgnoreCase("-parse_mesh"))
                     action = Action.PARSE_MESH;
+                else if (arg.equalsIgnoreCase("-rebuild_dates"))
+                    action = Action.REBUILD_DATES;
+                else if (arg.equalsIgnoreCase("-generate"))
+                    action = Action.GENERATE;
+                else if (arg.equalsIgnoreCase("-benchmark"))
+                    action = Action.BENCHMARK;
                 else
                     mode = arg.toLowerCase();
             } else {
@@ -61,6 +71,6 @@ public class MainClass {
     }
 
     private enum Action {
-        ANALYSE, PARSE, PARSE_MESH
+        ANALYSE, PARSE, PARSE_MESH, REBUILD_DATES, GENERATE, BENCHMARK
     }
 }
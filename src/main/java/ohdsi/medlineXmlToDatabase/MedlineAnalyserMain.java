@@ -55,10 +55,11 @@ public class MedlineAnalyserMain {
         MedlineAnalyserMain main = new MedlineAnalyserMain();
         main.analyseFolder(iniFile.get("XML_FOLDER"));
         main.createDatabase(iniFile.get("SERVER"), iniFile.get("SCHEMA"), iniFile.get("USER"), iniFile.get("PASSWORD"),
-                iniFile.get("DATA_SOURCE_TYPE"), iniFile.get("CREATE_SCHEMA"));
+                iniFile.get("DATA_SOURCE_TYPE"), iniFile.get("CREATE_SCHEMA"), iniFile.get("USE_LOOKUP_TABLES"), iniFile.get("NARROW_COLUMN_TYPES"),
+                iniFile.get("PMID_PARTITION_SIZE"), iniFile.get("CITATION_SUMMARY"));
     }
 
-    private void analyseFolder(String folderName) {
+    void analyseFolder(String folderName) {
         medlineCitationAnalyser = new MedlineCitationAnalyser();
 
         List<File> files = Arrays.asList(Objects.requireNonNull(new File(folderName).listFiles()));
@@ -89,14 +90,26 @@ public class MedlineAnalyserMain {
         }
     }
 
-    private void createDatabase(String server, String schema, String user, String password, String dateSourceType, String createSchema) {
+    void createDatabase(String server, String schema, String user, String password, String dateSourceType, String createSchema,
+                        String useLookupTables, String narrowColumnTypes, String pmidPartitionSize, String citationSummary) {
+        int partitionSize = pmidPartitionSize.isEmpty() ? 0 : Integer.parseInt(pmidPartitionSize);
         ConnectionWrapper connectionWrapper = new ConnectionWrapper(server, user, password, DbType.valueOf(dateSourceType.toUpperCase()));
         if (createSchema.equalsIgnoreCase("true"))
             connectionWrapper.createDatabase(schema);
         connectionWrapper.use(schema);
+        connectionWrapper.checkPmidPartitionSize(partitionSize);
         System.out.println("Creating tables");
-        medlineCitationAnalyser.createTables(connectionWrapper);
-        PmidToDate.createTable(connectionWrapper);
+        medlineCitationAnalyser.createTables(connectionWrapper, useLookupTables.equalsIgnoreCase("true"), narrowColumnTypes.equalsIgnoreCase("true"),
+                partitionSize);
+        PmidToDate.createTable(connectionWrapper, partitionSize);
+        connectionWrapper.dropTableIfExists(CitationHashes.TABLE_NAME);
+        CitationHashes.createTable(connectionWrapper, partitionSize);
+        FileLedger.dropTables(connectionWrapper);
+        FileLedger.createTables(connectionWrapper, schema);
+        connectionWrapper.dropTableIfExists(Quarantine.TABLE_NAME);
+        Quarantine.createTable(connectionWrapper, schema);
+        if (citationSummary.equalsIgnoreCase("true"))
+            CitationSummary.createTable(connectionWrapper, partitionSize);
         connectionWrapper.close();
         System.out.println("Finished creating table structure");
     }
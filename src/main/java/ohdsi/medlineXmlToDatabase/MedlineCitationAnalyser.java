@@ -16,12 +16,16 @@
 package ohdsi.medlineXmlToDatabase;
 
 import ohdsi.databases.ConnectionWrapper;
+import ohdsi.databases.InsertableDbTable;
 import ohdsi.utilities.StringUtilities;
 import ohdsi.utilities.XmlTools;
+import ohdsi.utilities.files.Row;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -30,6 +34,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 /**
  * In this class, we do the actual work of analyzing a single XML document.
@@ -40,8 +45,20 @@ public class MedlineCitationAnalyser {
 
     private static final String MEDLINE_CITATION = "MedlineCitation";
     private static final String ORDER_POSTFIX = "_Order";
+    /**
+     * Upper bound used to type the PMID columns. PMIDs are currently assigned in the 40 millions.
+     */
+    public static final int MAX_PMID = 99_999_999;
+    private static final Pattern DATE_PATTERN = Pattern.compile("[0-9]{4}-[0-9]{2}-[0-9]{2}");
+    private static final Pattern UI_PATTERN = Pattern.compile("(.*_)?UI", Pattern.CASE_INSENSITIVE);
+    private static final Pattern IDENTIFIER_PATTERN = Pattern.compile(".*(ID|ISSN)", Pattern.CASE_INSENSITIVE);
+    /**
+     * Minimum ratio of distinct values to occurrences for an identifier to be worth indexing
+     */
+    private static final double MIN_SELECTIVITY = 0.5;
     private Map<String, Set<String>> table2Fields = new HashMap<>();
     private Map<String, VariableType> field2VariableType = new HashMap<>();
+    private Map<String, Integer> table2MaxCount = new HashMap<>();
 
     public MedlineCitationAnalyser() {
         table2Fields.put(MEDLINE_CITATION, new HashSet<>());
@@ -87,13 +104,13 @@ public class MedlineCitationAnalyser {
                 parent = parent.substring(0, parent.lastIndexOf('_'));
                 if (!parent.equals(MEDLINE_CITATION) && table2Fields.containsKey(parent)) {
                     table2Fields.get(table).add(parent + ORDER_POSTFIX);
-                    field2VariableType.put(concatenate(table, parent + ORDER_POSTFIX), new VariableType(true, 3));
+                    field2VariableType.put(concatenate(table, parent + ORDER_POSTFIX), new VariableType(1, table2MaxCount.getOrDefault(parent, 1)));
                 }
             }
             if (!table.equals(MEDLINE_CITATION)) {
                 Set<String> fields = table2Fields.get(table);
                 fields.add(table + ORDER_POSTFIX);
-                field2VariableType.put(concatenate(table, table + ORDER_POSTFIX), new VariableType(true, 3));
+                field2VariableType.put(concatenate(table, table + ORDER_POSTFIX), new VariableType(1, table2MaxCount.getOrDefault(table, 1)));
                 if (fields.contains("PMID")) {
                     // A PMID field is encountered in a table that is not MEDLINE_CITATION. Need to rename to avoid collision with key
                     fields.add("Other_PMID");
@@ -112,9 +129,9 @@ public class MedlineCitationAnalyser {
                 }
             }
             table2Fields.get(table).add("PMID");
-            field2VariableType.put(concatenate(table, "PMID"), new VariableType(true, 8));
+            field2VariableType.put(concatenate(table, "PMID"), new VariableType(1, MAX_PMID));
             table2Fields.get(table).add("PMID_Version");
-            field2VariableType.put(concatenate(table, "PMID_Version"), new VariableType(true, 1));
+            field2VariableType.put(concatenate(table, "PMID_Version"), new VariableType(1, 9));
         }
     }
 
@@ -130,16 +147,33 @@ public class MedlineCitationAnalyser {
         }
     }
 
-    public void createTables(ConnectionWrapper connectionWrapper) {
+    /**
+     * @param narrowColumnTypes Whether to size the columns to the analysed values. The analysis usually covers a sample of the files, so longer text
+     *                          values in other files are truncated, and larger numbers and values that are not valid dates are dropped
+     * @param pmidPartitionSize Number of PMIDs per partition when range-partitioning the tables, or 0 to not use partitioning
+     */
+    public void createTables(ConnectionWrapper connectionWrapper, boolean useLookupTables, boolean narrowColumnTypes, int pmidPartitionSize) {
         List<String> sortedTables = new ArrayList<String>(table2Fields.keySet());
         Collections.sort(sortedTables);
+        List<Row> lookupRows = new ArrayList<>();
+        List<Row> indexRows = new ArrayList<>();
         for (String table : sortedTables) {
 
             List<String> sortedFields = new ArrayList<String>(table2Fields.get(table));
             Collections.sort(sortedFields);
             List<VariableType> types = new ArrayList<VariableType>(sortedFields.size());
-            for (String field : sortedFields)
-                types.add(field2VariableType.get(concatenate(table, field)));
+            List<String> lookupFields = new ArrayList<>();
+            for (String field : sortedFields) {
+                VariableType variableType = field2VariableType.get(concatenate(table, field));
+                if (useLookupTables && variableType.isLowCardinality()) {
+                    String dbField = field.length() == 0 ? "Value" : field;
+                    lookupFields.add(dbField);
+                    lookupRows.addAll(LookupCache.createRows(table, dbField, variableType.distinctValues));
+                    variableType = new VariableType(1, LookupCache.MAX_LOOKUP_ID);
+                } else if (!narrowColumnTypes)
+                    variableType = variableType.widen();
+                types.add(variableType);
+            }
             int index = sortedFields.indexOf("");
             if (index != -1)
                 sortedFields.set(index, "Value");
@@ -150,8 +184,50 @@ public class MedlineCitationAnalyser {
                 if (field.endsWith(ORDER_POSTFIX))
                     primaryKey.add(field);
 
-            connectionWrapper.createTableUsingVariableTypes(table, sortedFields, types, primaryKey);
+            for (int i = 0; i < sortedFields.size(); i++) {
+                String field = sortedFields.get(i);
+                String reason = lookupFields.contains(field) ? null : getIndexReason(table, field, types.get(i));
+                if (reason != null)
+                    indexRows.add(IndexRecommendations.createRow(table, field, reason));
+            }
+
+            connectionWrapper.createTableUsingVariableTypes(table, sortedFields, types, primaryKey, pmidPartitionSize);
+            if (!lookupFields.isEmpty()) {
+                System.out.println("Using lookup table for " + String.join(", ", lookupFields) + " in " + table);
+                LookupCache.createView(connectionWrapper, table, sortedFields, lookupFields);
+            }
+        }
+        if (useLookupTables) {
+            LookupCache.createTable(connectionWrapper);
+            for (int i = 0; i < lookupRows.size(); i += InsertableDbTable.batchSize)
+                connectionWrapper.insertIntoTable(LookupCache.TABLE_NAME, lookupRows.subList(i, Math.min(i + InsertableDbTable.batchSize, lookupRows.size())), false);
         }
+        IndexRecommendations.createTable(connectionWrapper);
+        if (!indexRows.isEmpty())
+            connectionWrapper.insertIntoTable(IndexRecommendations.TABLE_NAME, indexRows, false);
+        IndexRecommendations.printReport(indexRows);
+    }
+
+    /**
+     * Decides whether a field deserves a secondary index. The join keys (PMID, PMID_Version and the _Order fields) are already covered by the primary key.
+     *
+     * @return the reason for creating an index, or null if no index is needed
+     */
+    private String getIndexReason(String table, String field, VariableType variableType) {
+        if (field.equals("PMID") || field.equals("PMID_Version") || field.endsWith(ORDER_POSTFIX))
+            return null;
+        if (!variableType.isNumeric && variableType.getVarcharLength() == -1)
+            return null; // Too long to index
+        String name = field.equals("Value") ? table.substring(table.lastIndexOf('_') + 1) : field;
+        if (UI_PATTERN.matcher(name).matches())
+            return IndexRecommendations.DESCRIPTOR_UI;
+        if (IDENTIFIER_PATTERN.matcher(name).matches() && isSelective(variableType))
+            return IndexRecommendations.IDENTIFIER;
+        return null;
+    }
+
+    private boolean isSelective(VariableType variableType) {
+        return variableType.distinctValues == null || variableType.distinctValues.size() >= MIN_SELECTIVITY * variableType.count;
     }
 
     private boolean hasIllegalCharacter(String name) {
@@ -191,6 +267,7 @@ public class MedlineCitationAnalyser {
             NodeList children = node.getChildNodes();
             if (children.getLength() > 0) {
                 Set<String> seenChildren = new HashSet<String>();
+                Map<String, Integer> childTableCounts = new HashMap<>();
                 for (int j = 0; j < children.getLength(); j++) {
                     Node child = children.item(j);
                     String childName = name;
@@ -198,6 +275,7 @@ public class MedlineCitationAnalyser {
                     if (!child.getNodeName().equals("#text")) {
                         childName = concatenate(childName, child.getNodeName());
                         String potentialNewTableName = concatenate(tableName, childName);
+                        childTableCounts.merge(potentialNewTableName, 1, Integer::sum);
                         if (!seenChildren.add(childName)) { // Multiple instances per citation: must make it a sub table
                             if (!table2Fields.containsKey(potentialNewTableName)) {
                                 Set<String> fields = new HashSet<String>();
@@ -221,6 +299,10 @@ public class MedlineCitationAnalyser {
                     }
                     analyseNode(child, childName, tempTableName);
                 }
+                // Keep track of the maximum number of instances per citation, so we can size the _Order fields:
+                for (Map.Entry<String, Integer> entry : childTableCounts.entrySet())
+                    if (table2Fields.containsKey(entry.getKey()))
+                        table2MaxCount.merge(entry.getKey(), entry.getValue(), Math::max);
             }
         }
     }
@@ -232,11 +314,42 @@ public class MedlineCitationAnalyser {
             field2VariableType.put(name, type);
         }
 
-        if (type.isNumeric && !StringUtilities.isInteger(value))
-            type.isNumeric = false;
-
+        type.count++;
+        type.totalLength += value.length();
         if (value.length() > type.maxLength)
             type.maxLength = value.length();
+
+        if (type.isNumeric) {
+            if (StringUtilities.isLong(value)) {
+                long number = Long.parseLong(value);
+                type.minValue = Math.min(type.minValue, number);
+                type.maxValue = Math.max(type.maxValue, number);
+            } else
+                type.isNumeric = false;
+        }
+
+        if (type.isFlag && !value.equals("Y") && !value.equals("N"))
+            type.isFlag = false;
+
+        if (type.isDate && !isDate(value))
+            type.isDate = false;
+
+        if (type.distinctValues != null) {
+            type.distinctValues.add(value);
+            if (type.distinctValues.size() > VariableType.MAX_LOOKUP_VALUES)
+                type.distinctValues = null;
+        }
+    }
+
+    private boolean isDate(String value) {
+        if (!DATE_PATTERN.matcher(value).matches())
+            return false;
+        try {
+            LocalDate.parse(value);
+            return true;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
     }
 
     private String concatenate(String pre, String post) {
@@ -246,23 +359,133 @@ public class MedlineCitationAnalyser {
             return post;
     }
 
-    public class VariableType {
+    /**
+     * Summary of all values observed for a single field, used to pick the narrowest column type that will hold them.
+     */
+    public static class VariableType {
+        /**
+         * Headroom applied to observed ranges and lengths, since we typically only analyse a sample of the files
+         */
+        public static final int HEADROOM = 4;
+        public static final int MAX_VARCHAR_LENGTH = 255;
+        /**
+         * Fields with more distinct values than this are never turned into lookups
+         */
+        public static final int MAX_LOOKUP_VALUES = 50000;
+        private static final int MIN_OCCURRENCES_PER_LOOKUP_VALUE = 20;
+        private static final int MIN_LOOKUP_MEAN_LENGTH = 8;
+        private static final int MIN_VARCHAR_LENGTH = 16;
+
         public boolean isNumeric = true;
+        public boolean isFlag = true;
+        public boolean isDate = true;
         public int maxLength = 0;
+        public long minValue = Long.MAX_VALUE;
+        public long maxValue = Long.MIN_VALUE;
+        public long count = 0;
+        public long totalLength = 0;
+        /**
+         * Distinct values seen so far, or null once there are more than MAX_LOOKUP_VALUES
+         */
+        public Set<String> distinctValues = new HashSet<>();
 
-        public VariableType(boolean isNumeric, int maxLength) {
-            this.isNumeric = isNumeric;
-            this.maxLength = maxLength;
+        /**
+         * Creates a numeric type with a known range
+         */
+        public VariableType(long minValue, long maxValue) {
+            this.minValue = minValue;
+            this.maxValue = maxValue;
+            this.maxLength = Long.toString(maxValue).length();
+            this.isFlag = false;
+            this.isDate = false;
         }
 
         public VariableType() {
         }
 
-        public String toString() {
+        /**
+         * Creates a text type that can hold values up to the given length
+         */
+        public static VariableType text(int maxLength) {
+            VariableType variableType = new VariableType();
+            variableType.isNumeric = false;
+            variableType.isFlag = false;
+            variableType.isDate = false;
+            variableType.maxLength = maxLength;
+            return variableType;
+        }
+
+        /**
+         * Creates a date type
+         */
+        public static VariableType date() {
+            VariableType variableType = new VariableType();
+            variableType.isNumeric = false;
+            variableType.isFlag = false;
+            variableType.count = 1; // isDate() requires at least one observed value
+            return variableType;
+        }
+
+        public boolean isFlag() {
+            return isFlag && count > 0;
+        }
+
+        /**
+         * @return a type that does not depend on the sampled range or length: INT or BIGINT for numbers, and VARCHAR(255) or unbounded text otherwise
+         */
+        public VariableType widen() {
             if (isNumeric)
-                return "INT";
+                return new VariableType(0, maxLength < 10 ? Integer.MAX_VALUE / HEADROOM : Long.MAX_VALUE);
+            return text(maxLength > MAX_VARCHAR_LENGTH ? Integer.MAX_VALUE : MAX_VARCHAR_LENGTH);
+        }
+
+        public boolean isDate() {
+            return isDate && count > 0;
+        }
+
+        /**
+         * @return the largest absolute value the column should be able to hold, including headroom
+         */
+        public long getNumericBound() {
+            long bound = Math.max(Math.abs(minValue), Math.abs(maxValue));
+            if (bound > Long.MAX_VALUE / HEADROOM)
+                return Long.MAX_VALUE;
+            return bound * HEADROOM;
+        }
+
+        /**
+         * @return the VARCHAR length to use for this field, or -1 if the values are too long for a VARCHAR
+         */
+        public int getVarcharLength() {
+            if (maxLength > MAX_VARCHAR_LENGTH)
+                return -1;
+            int length = MIN_VARCHAR_LENGTH;
+            while (length < maxLength * 2)
+                length *= 2;
+            return Math.min(length, MAX_VARCHAR_LENGTH);
+        }
+
+        /**
+         * @return true if the field holds relatively few distinct strings that are worth replacing with lookup IDs
+         */
+        public boolean isLowCardinality() {
+            return !isNumeric && !isFlag() && !isDate() && distinctValues != null && !distinctValues.isEmpty()
+                    && count >= MIN_OCCURRENCES_PER_LOOKUP_VALUE * distinctValues.size() && getMeanLength() >= MIN_LOOKUP_MEAN_LENGTH;
+        }
+
+        public double getMeanLength() {
+            return count == 0 ? 0 : totalLength / (double) count;
+        }
+
+        public String toString() {
+            if (isFlag())
+                return "FLAG";
+            else if (isDate())
+                return "DATE";
+            else if (isNumeric)
+                return "INT [" + minValue + ", " + maxValue + "]";
             else
-                return "VARCHAR";
+                return "VARCHAR (max length = " + maxLength + ", mean length = " + String.format("%.1f", getMeanLength()) + ")";
         }
 
     }
@@ -17,6 +17,7 @@ package ohdsi.medlineXmlToDatabase;
 
 import ohdsi.databases.ConnectionWrapper;
 import ohdsi.databases.ConnectionWrapper.FieldInfo;
+import ohdsi.metrics.IngestionMetrics;
 import ohdsi.utilities.XmlTools;
 import ohdsi.utilities.collections.OneToManyList;
 import ohdsi.utilities.collections.OneToManySet;
@@ -26,6 +27,9 @@ import org.dom4j.Element;
 import org.dom4j.Node;
 
 import java.sql.Types;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -42,15 +46,22 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class MedlineCitationParser {
 
     public static final String PMID_VERSION_CONSTANT = "PMID_Version";
+    public static final String MEDLINE_CITATION = "MedlineCitation";
     private static final Logger log = LogManager.getLogger(MedlineCitationParser.class.getName());
-    private static final String MEDLINE_CITATION = "MedlineCitation";
     private static final String VERSION = "Version";
     private static final String PMID_CONSTANT = "PMID";
     private final OneToManySet<String, String> tables2Fields = new OneToManySet<>();
     private final OneToManyList<String, FieldInfo> tables2FieldInfos = new OneToManyList<>();
     private final ConnectionWrapper connectionWrapper;
+    private final LookupCache lookupCache;
+    private final CitationHashes citationHashes;
+    private final List<Map.Entry<String, Map<String, String>>> rows = new ArrayList<>();
+    private final List<CitationListener> listeners = new ArrayList<>();
+    private final IngestionMetrics metrics = IngestionMetrics.get();
+    private final List<Runnable> pendingMetrics = new ArrayList<>();
     private String pmid;
     private String pmidVersion;
+    private boolean replayToListeners = false;
 
     public MedlineCitationParser(ConnectionWrapper connectionWrapper, String schema) {
         this.connectionWrapper = connectionWrapper;
@@ -65,30 +76,132 @@ public class MedlineCitationParser {
                 tables2Fields.put(table, fieldInfo.name);
                 tables2FieldInfos.put(table, fieldInfo);
             }
+        lookupCache = new LookupCache(connectionWrapper, schema);
+        citationHashes = connectionWrapper.getTableNames(schema).contains(CitationHashes.TABLE_NAME) ? new CitationHashes(connectionWrapper) : null;
     }
 
-    public void parseAndInjectIntoDB(Node citation, boolean updateFiles) {
+    public void addListener(CitationListener listener) {
+        listeners.add(listener);
+    }
+
+    public void closeListeners() {
+        listeners.forEach(CitationListener::close);
+    }
+
+    /**
+     * @return true if any of the listeners keeps its state outside the database, so it is only durable once the listener is closed
+     */
+    public boolean hasCommittedListeners() {
+        return listeners.stream().anyMatch(listener -> listener instanceof CommittedCitationListener);
+    }
+
+    /**
+     * When set, citations that are skipped because they are already in the database are still passed to the listeners that keep their state outside
+     * the database. Used for citations that were committed by a run that did not get to close its listeners.
+     */
+    public void setReplayToListeners(boolean replayToListeners) {
+        this.replayToListeners = replayToListeners;
+    }
+
+    /**
+     * Parses the citation and inserts its rows. An existing citation with the same PMID and version is skipped, or in update mode replaced, unless its
+     * stored content hash shows that it has not changed.
+     *
+     * @return false if the citation was skipped because it has not changed
+     */
+    public boolean parseAndInjectIntoDB(Node citation, boolean updateFiles) {
         findPmidAndVersion(citation);
-        if (connectionWrapper.existsForPMIDAndVersion(pmid, pmidVersion)) {
-            if (updateFiles) {
+        boolean exists = connectionWrapper.existsForPMIDAndVersion(pmid, pmidVersion);
+        if (exists && !updateFiles && !replayToListeners)
+            return true;
+        Map<String, String> keys = Map.of(PMID_CONSTANT, pmid, PMID_VERSION_CONSTANT, pmidVersion);
+        long start = System.nanoTime();
+        rows.clear();
+        parseNode(citation, "", MEDLINE_CITATION, new HashMap<>(44), true, keys);
+        metrics.recordSince(IngestionMetrics.Stage.PARSE, start);
+        if (exists && !updateFiles) {
+            replayRows();
+            return true;
+        }
+        if (citationHashes != null) {
+            long hash = citationHashes.computeHash(rows);
+            if (exists) {
+                Long oldHash = citationHashes.getHash(pmid, pmidVersion);
+                if (oldHash != null && oldHash == hash) {
+                    pendingMetrics.add(metrics::countUnchanged);
+                    if (replayToListeners)
+                        replayRows();
+                    return false;
+                }
                 deleteAllForPMIDAndVersion();
-            } else {
-                return;
             }
+            citationHashes.insert(pmid, pmidVersion, hash);
+        } else if (exists)
+            deleteAllForPMIDAndVersion();
+        for (Map.Entry<String, Map<String, String>> row : rows) {
+            for (CitationListener listener : listeners)
+                listener.row(row.getKey(), row.getValue());
+            insertIntoDB(row.getKey(), row.getValue());
+            String table = row.getKey();
+            pendingMetrics.add(() -> metrics.countRow(table));
         }
-        Map<String, String> keys = Map.of(PMID_CONSTANT, pmid, PMID_VERSION_CONSTANT, pmidVersion);
-        parseNode(citation, "", MEDLINE_CITATION, new HashMap<>(44), true, keys);
+        pendingMetrics.add(metrics::countCitation);
+        return true;
+    }
+
+    /**
+     * @return the PMID of the citation that was parsed last
+     */
+    public String getPmid() {
+        return pmid;
+    }
+
+    /**
+     * Passes the citations parsed since the previous commit or rollback on to the metrics and listeners, once their batch has been committed
+     */
+    public void commit() {
+        pendingMetrics.forEach(Runnable::run);
+        pendingMetrics.clear();
+        listeners.forEach(CitationListener::commit);
+    }
+
+    /**
+     * Discards the in-memory state of citations whose batch was rolled back, so they are neither counted nor seen by the listeners
+     */
+    public void rollback() {
+        pendingMetrics.clear();
+        listeners.forEach(CitationListener::rollback);
+        lookupCache.reload();
+    }
+
+    /**
+     * Passes the rows of a citation that is already in the database to the listeners that keep their state outside the database, replacing any
+     * earlier version of the citation they have
+     */
+    private void replayRows() {
+        for (CitationListener listener : listeners)
+            if (listener instanceof CommittedCitationListener) {
+                listener.deleteCitation(pmid, pmidVersion);
+                for (Map.Entry<String, Map<String, String>> row : rows)
+                    listener.row(row.getKey(), row.getValue());
+            }
     }
 
     /**
      * Record could be an update of a previous entry. Just in case, all previous data must be removed
      */
     private void deleteAllForPMIDAndVersion() {
+        for (CitationListener listener : listeners)
+            listener.deleteCitation(pmid, pmidVersion);
         connectionWrapper.deleteAllForPMIDAndVersion(tables2Fields.keySet(), pmid, pmidVersion);
+        if (citationHashes != null)
+            citationHashes.delete(pmid, pmidVersion);
+        pendingMetrics.add(metrics::countDelete);
     }
 
     private void insertIntoDB(String table, Map<String, String> field2Value) {
         removeFieldsNotInDb(table, field2Value);
+        lookupCache.encode(table, field2Value);
         truncateFieldsToDbSize(table, field2Value);
         dropInvalidValues(table, field2Value);
         connectionWrapper.insertIntoTable(table, field2Value);
@@ -96,7 +209,7 @@ public class MedlineCitationParser {
 
     private void dropInvalidValues(String table, Map<String, String> field2Value) {
         for (FieldInfo fieldInfo : tables2FieldInfos.get(table.toLowerCase())) {
-            if (fieldInfo.type == Types.INTEGER || fieldInfo.type == Types.BIGINT) {
+            if (isTypedField(fieldInfo.type)) {
                 String name = null;
                 for (String field : field2Value.keySet())
                     if (Abbreviator.abbreviate(field).equalsIgnoreCase(fieldInfo.name)) {
@@ -105,17 +218,41 @@ public class MedlineCitationParser {
                     }
                 if (name != null) {
                     String value = field2Value.get(name);
-                    try {
-                        Integer.parseInt(value);
-                    } catch (NumberFormatException e) {
-                        log.warn("Error parsing integer value '{}' for field {} in table {}. Setting to null", value, fieldInfo.name, table);
+                    if (!isValidValue(fieldInfo.type, value)) {
+                        log.warn("Error parsing value '{}' for field {} in table {}. Setting to null", value, fieldInfo.name, table);
                         field2Value.remove(name);
+                        pendingMetrics.add(metrics::countDroppedField);
                     }
                 }
             }
         }
     }
 
+    private boolean isTypedField(int type) {
+        return type == Types.SMALLINT || type == Types.INTEGER || type == Types.BIGINT || type == Types.BIT || type == Types.BOOLEAN
+                || type == Types.DATE;
+    }
+
+    private boolean isValidValue(int type, String value) {
+        try {
+            switch (type) {
+                case Types.SMALLINT -> Short.parseShort(value);
+                case Types.INTEGER -> Integer.parseInt(value);
+                case Types.BIGINT -> Long.parseLong(value);
+                case Types.DATE -> LocalDate.parse(value);
+                case Types.BIT, Types.BOOLEAN -> {
+                    return value.equals("Y") || value.equals("N");
+                }
+                default -> {
+                    return true;
+                }
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            return false;
+        }
+        return true;
+    }
+
     private void removeFieldsNotInDb(String table, Map<String, String> field2Value) {
         Set<String> fieldsInDb = tables2Fields.get(table.toLowerCase());
         Iterator<Map.Entry<String, String>> iterator = field2Value.entrySet().iterator();
@@ -124,13 +261,14 @@ public class MedlineCitationParser {
             if (!fieldsInDb.contains(Abbreviator.abbreviate(field))) {
                 log.warn("Ignoring '{}' in '{}', field was not encountered in the XML files when creating schema", field, table);
                 iterator.remove();
+                pendingMetrics.add(metrics::countDroppedField);
             }
         }
     }
 
     private void truncateFieldsToDbSize(String table, Map<String, String> field2Value) {
         for (FieldInfo fieldInfo : tables2FieldInfos.get(table.toLowerCase())) {
-            if (fieldInfo.type == Types.VARCHAR || fieldInfo.type == Types.CLOB) {
+            if (fieldInfo.type == Types.VARCHAR || fieldInfo.type == Types.CHAR || fieldInfo.type == Types.CLOB) {
                 String name = null;
                 for (String field : field2Value.keySet())
                     if (Abbreviator.abbreviate(field).equalsIgnoreCase(fieldInfo.name)) {
@@ -143,6 +281,7 @@ public class MedlineCitationParser {
                         log.warn("Truncating field {} in table {} from {} to {} characters for PMID {}", fieldInfo.name, table, value.length(), fieldInfo.length, pmid);
                         value = value.substring(0, fieldInfo.length);
                         field2Value.put(name, value);
+                        pendingMetrics.add(metrics::countTruncation);
                     }
                 }
             }
@@ -189,7 +328,7 @@ public class MedlineCitationParser {
                 }
             });
         }
-        if (tableRoot) { // Bottom level completed: write values to database
+        if (tableRoot) { // Bottom level completed: keep values for writing to database
             if (!tableName.equals(MEDLINE_CITATION)) {
                 if (field2Value.containsKey(PMID_CONSTANT)) {
                     // A PMID field is encountered in a table that is not MEDLINE_CITATION. Need to rename to avoid collision with key
@@ -203,7 +342,7 @@ public class MedlineCitationParser {
                 }
             }
             field2Value.putAll(keys);
-            insertIntoDB(tableName, field2Value);
+            rows.add(Map.entry(tableName, field2Value));
         }
     }
 
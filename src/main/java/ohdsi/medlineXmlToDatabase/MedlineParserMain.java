@@ -17,6 +17,12 @@ package ohdsi.medlineXmlToDatabase;
 
 import ohdsi.databases.ConnectionWrapper;
 import ohdsi.databases.DbType;
+import ohdsi.metrics.CitationBatchTracker;
+import ohdsi.metrics.FileReadEvent;
+import ohdsi.metrics.IngestionMetrics;
+import ohdsi.metrics.MetricsServer;
+import ohdsi.metrics.ProgressReporter;
+import ohdsi.metrics.TimedInputStream;
 import ohdsi.utilities.files.IniFile;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -28,11 +34,13 @@ import org.dom4j.io.SAXReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Set;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -43,20 +51,57 @@ import java.util.zip.GZIPInputStream;
 public class MedlineParserMain {
 
     private static final Logger log = LogManager.getLogger(MedlineParserMain.class.getName());
+    private static final String DELETED_PMIDS = "/PubmedArticleSet/DeleteCitation/PMID";
+    private static final int BATCH_SIZE = 100;
 
+    private final List<CitationListener> listeners = new ArrayList<>();
+    private Path progressFile = null;
+    private int progressInterval = 60;
+    private boolean skipLoadedFiles = true;
 
     public static void main(String[] args) {
         log.info("Starting MedLineParserMain");
         IniFile iniFile = new IniFile(args[0]);
+        IngestionMetrics metrics = IngestionMetrics.get();
+        metrics.registerMBean();
+        MetricsServer metricsServer = iniFile.get("METRICS_PORT").equals("") ? null : new MetricsServer(Integer.parseInt(iniFile.get("METRICS_PORT")));
 
-        MedlineParserMain main = new MedlineParserMain();
-        ConnectionWrapper connectionWrapper = new ConnectionWrapper(iniFile.get("SERVER"), iniFile.get("USER"), iniFile.get("PASSWORD"), DbType.valueOf(iniFile.get("DATA_SOURCE_TYPE").toUpperCase()));
-        connectionWrapper.use(iniFile.get("SCHEMA"));
-        main.parseFolder(iniFile.get("XML_FOLDER"), connectionWrapper, iniFile.get("SCHEMA"), iniFile.get("BASELINE"));
+        try {
+            MedlineParserMain main = new MedlineParserMain();
+            if (!iniFile.get("PROGRESS_FILE").equals(""))
+                main.progressFile = Path.of(iniFile.get("PROGRESS_FILE"));
+            if (!iniFile.get("PROGRESS_INTERVAL").equals(""))
+                main.progressInterval = Integer.parseInt(iniFile.get("PROGRESS_INTERVAL"));
+            main.skipLoadedFiles = !iniFile.get("SKIP_LOADED_FILES").equalsIgnoreCase("false");
+            ConnectionWrapper connectionWrapper = new ConnectionWrapper(iniFile.get("SERVER"), iniFile.get("USER"), iniFile.get("PASSWORD"), DbType.valueOf(iniFile.get("DATA_SOURCE_TYPE").toUpperCase()));
+            connectionWrapper.use(iniFile.get("SCHEMA"));
+            main.parseFolder(iniFile.get("XML_FOLDER"), connectionWrapper, iniFile.get("SCHEMA"), iniFile.get("BASELINE"),
+                    iniFile.get("MINIMAL_LOGGING").equalsIgnoreCase("true"), iniFile.get("MESH_POSTINGS_FILE"),
+                    iniFile.get("CITATION_GRAPH_FILE"), iniFile.get("CITATION_SUMMARY").equalsIgnoreCase("true"));
+            if (iniFile.get("CREATE_INDICES").equalsIgnoreCase("true")) {
+                log.info("Creating indices");
+                IndexRecommendations.createIndices(connectionWrapper, iniFile.get("SCHEMA"));
+            }
+        } finally {
+            if (metricsServer != null)
+                metricsServer.close();
+        }
+        log.info("Parsed {} citations in {} files, skipped {} unchanged, deleted {}, truncated {} values and dropped {} values", metrics.getCitations(),
+                metrics.getFiles(), metrics.getUnchanged(), metrics.getDeletes(), metrics.getTruncations(), metrics.getDroppedFields());
+        if (metrics.getQuarantined() != 0)
+            log.warn("{} citations could not be loaded, see the {} table", metrics.getQuarantined(), Quarantine.TABLE_NAME);
         log.info("Done!");
     }
 
-    private void parseFolder(String folder, ConnectionWrapper connectionWrapper, String schema, String baseLine) {
+    /**
+     * Adds a listener that receives the rows of all citations parsed by this instance, in addition to the listeners configured in the ini file
+     */
+    void addListener(CitationListener listener) {
+        listeners.add(listener);
+    }
+
+    void parseFolder(String folder, ConnectionWrapper connectionWrapper, String schema, String baseLine, boolean minimalLogging,
+                     String meshPostingsFile, String citationGraphFile, boolean citationSummary) {
         File[] files = new File(folder).listFiles();
 
         if (files == null || files.length == 0) {
@@ -70,62 +115,157 @@ public class MedlineParserMain {
 
         SAXReader reader = new SAXReader();
         PmidToDate pmidToDate = new PmidToDate(connectionWrapper);
+        if (!connectionWrapper.getTableNames(schema).contains(CitationHashes.TABLE_NAME)) {
+            log.info("Creating table {}. Citations loaded before now will be replaced once when revised", CitationHashes.TABLE_NAME);
+            CitationHashes.createTable(connectionWrapper, 0);
+        }
         MedlineCitationParser medlineCitationParser = new MedlineCitationParser(connectionWrapper, schema);
+        listeners.forEach(medlineCitationParser::addListener);
+        if (!meshPostingsFile.equals(""))
+            medlineCitationParser.addListener(new MeshPostings(Path.of(meshPostingsFile)));
+        if (!citationGraphFile.equals(""))
+            medlineCitationParser.addListener(new CitationGraphBuilder(Path.of(citationGraphFile)));
+        if (citationSummary) {
+            if (!connectionWrapper.getTableNames(schema).contains(CitationSummary.TABLE_NAME)) {
+                log.info("Creating table {}. Citations loaded before now will not be included", CitationSummary.TABLE_NAME);
+                CitationSummary.createTable(connectionWrapper, 0);
+            }
+            medlineCitationParser.addListener(new CitationSummary(connectionWrapper));
+        }
+        FileLedger.createTables(connectionWrapper, schema);
+        FileLedger fileLedger = new FileLedger(connectionWrapper, medlineCitationParser.hasCommittedListeners());
+        Quarantine.createTable(connectionWrapper, schema);
+        CitationBatchLoader batchLoader = new CitationBatchLoader(connectionWrapper, pmidToDate, medlineCitationParser, fileLedger,
+                new Quarantine(connectionWrapper), updateFiles);
+
+        List<String> minimallyLoggedTables = new ArrayList<>();
+        if (minimalLogging && !updateFiles) {
+            // Unlogged tables are emptied after a crash, so the ledger, checkpoints and quarantine must be unlogged with the citation tables. Otherwise a
+            // resumed load would skip the files and citations they record as loaded.
+            Set<String> unloggedWithCitations = Set.of(PmidToDate.TABLE_NAME, CitationHashes.TABLE_NAME, CitationSummary.TABLE_NAME, FileLedger.TABLE_NAME,
+                    FileLedger.CHECKPOINT_TABLE_NAME, Quarantine.TABLE_NAME);
+            for (String table : connectionWrapper.getTableNames(schema))
+                if (table.toLowerCase().startsWith("medcit") || unloggedWithCitations.contains(table.toLowerCase()))
+                    minimallyLoggedTables.add(table);
+            log.info("Using minimal logging for {} tables during baseline load", minimallyLoggedTables.size());
+            connectionWrapper.setMinimalLogging(true, minimallyLoggedTables);
+        }
 
-        Arrays.stream(Objects.requireNonNull(files))
+        try {
+            parseFiles(files, connectionWrapper, reader, batchLoader, medlineCitationParser, fileLedger, updateFiles);
+        } catch (RuntimeException e) {
+            if (!minimallyLoggedTables.isEmpty())
+                log.error("Load failed. Tables are still minimally logged, and should be reloaded");
+            throw e;
+        }
+        medlineCitationParser.closeListeners();
+        fileLedger.markListenersSynced();
+
+        if (!minimallyLoggedTables.isEmpty()) {
+            log.info("Load completed, restoring logging");
+            connectionWrapper.setMinimalLogging(false, minimallyLoggedTables);
+        }
+    }
+
+    private void parseFiles(File[] files, ConnectionWrapper connectionWrapper, SAXReader reader, CitationBatchLoader batchLoader,
+                            MedlineCitationParser medlineCitationParser, FileLedger fileLedger, boolean updateFiles) {
+        boolean committedListeners = medlineCitationParser.hasCommittedListeners();
+        List<File> filesToParse = Arrays.stream(Objects.requireNonNull(files))
                 .filter(file -> file.getAbsolutePath().endsWith("xml.gz"))
+                .filter(file -> !skipLoadedFiles || !fileLedger.isLoaded(file) || (committedListeners && fileLedger.isUnsyncedWithListeners(file)))
                 .sorted(Comparator.comparing(File::getName))
-                .forEach(f -> {
-                    long start = System.currentTimeMillis();
-                    log.info("Processing {}", f.getName());
-                    try (FileInputStream fileInputStream = new FileInputStream(f);
-                         GZIPInputStream gzipInputStream = new GZIPInputStream(fileInputStream)) {
-                        Document document = reader.read(gzipInputStream);
-                        log.info("Unzipped file into 'document'");
-                        analyse(document, connectionWrapper, pmidToDate, medlineCitationParser, updateFiles);
-                    } catch (IOException | DocumentException e) {
-                        e.printStackTrace();
+                .toList();
+        long xmlFiles = Arrays.stream(files).filter(file -> file.getAbsolutePath().endsWith("xml.gz")).count();
+        if (filesToParse.size() < xmlFiles)
+            log.info("Skipping {} files that were loaded before according to {}", xmlFiles - filesToParse.size(), FileLedger.TABLE_NAME);
+        try (ProgressReporter progress = new ProgressReporter(filesToParse, progressFile, progressInterval)) {
+            filesToParse.forEach(f -> {
+                long start = System.currentTimeMillis();
+                log.info("Processing {}", f.getName());
+                if (fileLedger.isChanged(f))
+                    log.warn("{} has changed since it was loaded, loading it again", f.getName());
+                // Listeners that keep their state outside the database have not seen citations committed by a run that failed before closing them:
+                boolean replay = committedListeners && (fileLedger.isUnsyncedWithListeners(f) || fileLedger.getCommittedCitations(f) > 0);
+                if (replay && fileLedger.isLoaded(f))
+                    log.info("{} was loaded by a run that did not complete, passing its citations to the listeners again", f.getName());
+                medlineCitationParser.setReplayToListeners(replay);
+                try (ChecksumInputStream checksumInputStream = new ChecksumInputStream(new FileInputStream(f));
+                     TimedInputStream gzipInputStream = new TimedInputStream(new GZIPInputStream(progress.startFile(f, checksumInputStream)))) {
+                    FileReadEvent event = new FileReadEvent();
+                    event.begin();
+                    Document document = reader.read(gzipInputStream);
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.fileName = f.getName();
+                        event.compressedBytes = f.length();
+                        event.uncompressedBytes = gzipInputStream.getBytes();
+                        event.gunzipTime = gzipInputStream.getNanos();
+                        event.commit();
                     }
-                    log.info("Completed {} in {} seconds", f.getName(), (System.currentTimeMillis() - start) / 1000);
-                });
+                    log.info("Unzipped file into 'document'");
+                    checksumInputStream.finish();
+                    int citations = analyse(f, document, connectionWrapper, batchLoader, medlineCitationParser, fileLedger, updateFiles, replay,
+                            progress);
+                    int deletions = updateFiles ? document.selectNodes(DELETED_PMIDS).size() : 0;
+                    fileLedger.record(f, checksumInputStream.getChecksum(), citations, deletions,
+                            System.currentTimeMillis() - start);
+                } catch (IOException | DocumentException e) {
+                    e.printStackTrace();
+                }
+                progress.finishFile();
+                IngestionMetrics.get().countFile();
+                log.info("Completed {} in {} seconds", f.getName(), (System.currentTimeMillis() - start) / 1000);
+            });
+        }
     }
 
 
-    private void analyse(Document document, ConnectionWrapper connectionWrapper, PmidToDate pmidToDate, MedlineCitationParser medlineCitationParser, boolean updateFiles) {
+    /**
+     * Loads the citations of the file that were not committed by an earlier run, followed by its deletions. When replaying, all citations are loaded,
+     * so the committed ones are passed to the listeners again.
+     *
+     * @return the number of citations in the file
+     */
+    private int analyse(File file, Document document, ConnectionWrapper connectionWrapper, CitationBatchLoader batchLoader,
+                        MedlineCitationParser medlineCitationParser, FileLedger fileLedger, boolean updateFiles, boolean replay,
+                        ProgressReporter progress) {
+        List<Node> citations = document.getRootElement()
+                .elements("PubmedArticle")
+                .stream()
+                .map(element -> element.selectSingleNode("./MedlineCitation"))
+                .toList();
+        int committed = replay ? 0 : fileLedger.getCommittedCitations(file);
+        if (committed > 0)
+            log.info("Resuming after the first {} citations, which were committed by an earlier run", committed);
+        else if (replay && fileLedger.getCommittedCitations(file) > 0)
+            log.info("Passing the first {} citations, which were committed by an earlier run, to the listeners again",
+                    fileLedger.getCommittedCitations(file));
+        progress.setFileCitations(citations.size() - committed);
         log.info("Loading citations");
-        AtomicInteger i = new AtomicInteger();
-        connectionWrapper.setBatchMode(true);
-        document.getRootElement()
-                .elementIterator("PubmedArticle")
-                .forEachRemaining(element -> {
-                    Node citation = element.selectSingleNode("./MedlineCitation");
-                    medlineCitationParser.parseAndInjectIntoDB(citation, updateFiles);
-                    pmidToDate.insertDates(citation, updateFiles);
-                    if (i.get() % 100 == 0) {
-                        try {
-                            connectionWrapper.setBatchMode(false);
-                        } catch (Exception e) {
-                            log.error("Problem inserting batch into to DB for citations {} to {}", i.get() - 100, i);
-                            log.error(e.getMessage());
-                            e.printStackTrace();
-                        }
-                        connectionWrapper.setBatchMode(true);
-                    }
-                    i.getAndIncrement();
-                });
-        connectionWrapper.setBatchMode(false);
+        CitationBatchTracker batchTracker = new CitationBatchTracker(file.getName());
+        int from = committed;
+        while (from < citations.size()) {
+            // Batches end after citation 0, 100, 200, etc.
+            int to = Math.min(citations.size(), (from + BATCH_SIZE - 1) / BATCH_SIZE * BATCH_SIZE + 1);
+            batchLoader.load(file, citations, from, to, batchTracker);
+            batchTracker.commit();
+            progress.setFileCommitted(to - committed);
+            from = to;
+        }
         if (updateFiles) {
             deleteCitations(document, connectionWrapper, medlineCitationParser);
         }
+        return citations.size();
     }
 
     private void deleteCitations(Document document, ConnectionWrapper connectionWrapper, MedlineCitationParser medlineCitationParser) {
-        List<Node> toBeDeleted = document.selectNodes("/PubmedArticleSet/DeleteCitation/PMID");
+        List<Node> toBeDeleted = document.selectNodes(DELETED_PMIDS);
         if (!toBeDeleted.isEmpty()) {
             log.info("Deleting {} citations", toBeDeleted.size());
             connectionWrapper.setBatchMode(true);
             toBeDeleted.forEach(medlineCitationParser::delete);
             connectionWrapper.setBatchMode(false);
+            medlineCitationParser.commit();
         }
     }
 }
@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.medlineXmlToDatabase;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Inverted index from MeSH descriptor UI to the PMIDs of the citations indexed with that descriptor, stored as compressed (Roaring) bitmaps. Queries such
+ * as "all citations with descriptor D or any of its descendants" become a union of bitmaps instead of a join on the MeSH heading table.
+ * <p>
+ * The postings are loaded from the side file at the start of a run, kept up to date while citations are parsed, and written back when the run completes.
+ * If a run fails, the file still reflects the previous run.
+ * <p>
+ * Postings are keyed on PMID only, so they only cover version 1 of each citation. Rows and deletions of other versions are ignored, so deleting a
+ * later version does not remove the postings of version 1.
+ */
+public class MeshPostings extends CommittedCitationListener {
+
+    public static final String MESH_HEADING_TABLE = "MedlineCitation_MeshHeadingList_MeshHeading";
+    public static final String DESCRIPTOR_UI_FIELD = "DescriptorName_UI";
+    private static final Logger log = LogManager.getLogger(MeshPostings.class.getName());
+    private static final int MAGIC = 0x4D504F53; // "MPOS"
+    private static final int VERSION = 1;
+
+    private final Path path;
+    private final Map<String, RoaringBitmap> uiToPmids;
+    private final Map<String, RoaringBitmap> addedUiToPmids = new HashMap<>();
+    private final RoaringBitmap addedPmids = new RoaringBitmap();
+    private final RoaringBitmap deletedPmids = new RoaringBitmap();
+
+    /**
+     * Opens the postings at the given path, starting empty if the file does not exist yet
+     */
+    public MeshPostings(Path path) {
+        this.path = path;
+        uiToPmids = Files.exists(path) ? read(path) : new HashMap<>();
+        log.info("Loaded MeSH postings for {} descriptors", uiToPmids.size());
+    }
+
+    public static Map<String, RoaringBitmap> read(Path path) {
+        Map<String, RoaringBitmap> uiToPmids = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new RuntimeException("File " + path + " is not a MeSH postings file of version " + VERSION);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String ui = in.readUTF();
+                RoaringBitmap pmids = new RoaringBitmap();
+                pmids.deserialize(in);
+                uiToPmids.put(ui, pmids);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading MeSH postings from " + path, e);
+        }
+        return uiToPmids;
+    }
+
+    /**
+     * @return the PMIDs of all citations indexed with the descriptor. The bitmap must not be modified
+     */
+    public RoaringBitmap getPmids(String ui) {
+        RoaringBitmap pmids = uiToPmids.get(ui);
+        return pmids == null ? new RoaringBitmap() : pmids;
+    }
+
+    /**
+     * Additions and removals are buffered and applied in bulk, since removing a citation means removing it from every descriptor bitmap.
+     */
+    @Override
+    protected void committedRow(String table, Map<String, String> field2Value) {
+        if (!table.equalsIgnoreCase(MESH_HEADING_TABLE))
+            return;
+        String ui = field2Value.get(DESCRIPTOR_UI_FIELD);
+        if (ui != null && isFirstVersion(field2Value.get(MedlineCitationParser.PMID_VERSION_CONSTANT))) {
+            int pmid = Integer.parseInt(field2Value.get("PMID"));
+            addedUiToPmids.computeIfAbsent(ui, u -> new RoaringBitmap()).add(pmid);
+            addedPmids.add(pmid);
+        }
+    }
+
+    @Override
+    protected void committedDeleteCitation(String pmid, String pmidVersion) {
+        if (!isFirstVersion(pmidVersion))
+            return;
+        int intPmid = Integer.parseInt(pmid);
+        // Buffered removals are applied before buffered additions, so a citation added earlier in this run must be flushed before it can be removed:
+        if (addedPmids.contains(intPmid))
+            flush();
+        deletedPmids.add(intPmid);
+    }
+
+    private static boolean isFirstVersion(String pmidVersion) {
+        return pmidVersion == null || pmidVersion.equals("1");
+    }
+
+    private void flush() {
+        if (!deletedPmids.isEmpty())
+            for (RoaringBitmap pmids : uiToPmids.values())
+                pmids.andNot(deletedPmids);
+        for (Map.Entry<String, RoaringBitmap> entry : addedUiToPmids.entrySet())
+            uiToPmids.computeIfAbsent(entry.getKey(), u -> new RoaringBitmap()).or(entry.getValue());
+        deletedPmids.clear();
+        addedPmids.clear();
+        addedUiToPmids.clear();
+    }
+
+    @Override
+    public void close() {
+        flush();
+        write();
+    }
+
+    /**
+     * Writes the postings to a temporary file first, and then replaces the existing file, so a reader never sees a partially written file.
+     */
+    private void write() {
+        log.info("Writing MeSH postings for {} descriptors to {}", uiToPmids.size(), path);
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            Map<String, RoaringBitmap> sorted = new TreeMap<>(uiToPmids);
+            sorted.values().removeIf(RoaringBitmap::isEmpty);
+            out.writeInt(sorted.size());
+            for (Map.Entry<String, RoaringBitmap> entry : sorted.entrySet()) {
+                entry.getValue().runOptimize();
+                out.writeUTF(entry.getKey());
+                entry.getValue().serialize(out);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing MeSH postings to " + path, e);
+        }
+        try {
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Error replacing MeSH postings file " + path, e);
+        }
+    }
+}
@@ -22,39 +22,39 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
-import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * This class is used to create and populate a derived table with publication dates. In the original Medline XML the publication needs to be constructed by
  * combining several fields.
+ * <p>
+ * The date is derived directly from the field values, without building and parsing date strings, so the derivation is thread-safe and allocates no
+ * objects. Like the lenient date parsing it replaces, out-of-range months and days roll over (e.g. month 0 is December of the previous year).
  *
  * @author mschuemi
  */
 public class PmidToDate {
 
 
-    private static final String TABLE_NAME = "pmid_to_date";
-    private final List<String> months = List.of("Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec");
-    private final Pattern yearPattern = Pattern.compile("(19|20)[0-9][0-9]");
+    public static final String TABLE_NAME = "pmid_to_date";
+    /**
+     * Returned by deriveEpochDay if no date can be derived
+     */
+    public static final long NO_DATE = Long.MIN_VALUE;
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+    private static final int MAX_YEAR = 9999;
+    private static final List<String> FIELDS = List.of("pmid", "pmid_version", "date");
     private final ConnectionWrapper connectionWrapper;
-    private DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.ENGLISH);
 
     public PmidToDate(ConnectionWrapper connectionWrapper) {
         this.connectionWrapper = connectionWrapper;
         connectionWrapper.setDateFormat();
     }
 
-    public static void createTable(ConnectionWrapper connectionWrapper) {
+    public static void createTable(ConnectionWrapper connectionWrapper, int pmidPartitionSize) {
         List<String> fields = new ArrayList<String>();
         List<String> types = new ArrayList<String>();
         fields.add("pmid");
@@ -70,7 +70,7 @@ public class PmidToDate {
         primaryKey.add("PMID");
         primaryKey.add("PMID_Version");
 
-        connectionWrapper.createTable(TABLE_NAME, fields, types, primaryKey);
+        connectionWrapper.createTable(TABLE_NAME, fields, types, primaryKey, pmidPartitionSize);
     }
 
     public void insertDates(Document document) {
@@ -111,23 +111,14 @@ public class PmidToDate {
             String pubMonthString = XmlTools.getChildByNameValue(pubDateNode, "Month");
             String pubDayString = XmlTools.getChildByNameValue(pubDateNode, "Day");
             String medlineString = XmlTools.getChildByNameValue(pubDateNode, "MedlineDate");
-            String date = parseDate(articleYearString, articleMonthString, articleDayString, pubYearString, pubMonthString, pubDayString, medlineString);
-            try {
-                date = dateFormat.format(dateFormat.parse(date));
-            } catch (ParseException e) {
-                System.err.println("Error parsing date with\n" + "article year = '" + articleYearString + "', month = '" + articleMonthString + "', day = '"
-                        + articleDayString + "\n" + "pub year = '" + pubYearString + "', month = '" + pubMonthString + "', day = '" + pubDayString + "\n"
-                        + "', medline date = '" + medlineString + "'");
-                date = null;
-            }
-            if (date == null) {
-                System.err.println("No valid date found for PMID " + pmid);
+            long epochDay = deriveEpochDay(articleYearString, articleMonthString, articleDayString, pubYearString, pubMonthString, pubDayString,
+                    medlineString);
+            if (epochDay == NO_DATE) {
+                System.err.println("No valid date found for PMID " + pmid + " with\n" + "article year = '" + articleYearString + "', month = '"
+                        + articleMonthString + "', day = '" + articleDayString + "\n" + "pub year = '" + pubYearString + "', month = '" + pubMonthString
+                        + "', day = '" + pubDayString + "\n" + "', medline date = '" + medlineString + "'");
             } else {
-                Map<String, String> field2Value = new HashMap<String, String>();
-                field2Value.put("pmid", pmid);
-                field2Value.put("pmid_version", pmid_version);
-                field2Value.put("date", date);
-                connectionWrapper.insertIntoTable(TABLE_NAME, field2Value);
+                insertDate(pmid, pmid_version, epochDay);
             }
         }
         connectionWrapper.setBatchMode(false);
@@ -156,78 +147,159 @@ public class PmidToDate {
         String pubMonthString = XmlTools.getValue(pubDateNode, "./Month");
         String pubDayString = XmlTools.getValue(pubDateNode, "./Day");
         String medlineString = XmlTools.getValue(pubDateNode, "./MedlineDate");
-        String date = parseDate(articleYearString, articleMonthString, articleDayString, pubYearString, pubMonthString, pubDayString, medlineString);
-        try {
-            date = dateFormat.format(dateFormat.parse(date));
-        } catch (ParseException e) {
-            System.err.println("Error parsing date with\n" + "article year = '" + articleYearString + "', month = '" + articleMonthString + "', day = '"
-                    + articleDayString + "\n" + "pub year = '" + pubYearString + "', month = '" + pubMonthString + "', day = '" + pubDayString + "\n"
-                    + "', medline date = '" + medlineString + "'");
-            date = null;
-        }
-        if (date == null) {
-            System.err.println("No valid date found for PMID " + pmid);
+        long epochDay = deriveEpochDay(articleYearString, articleMonthString, articleDayString, pubYearString, pubMonthString, pubDayString,
+                medlineString);
+        if (epochDay == NO_DATE) {
+            System.err.println("No valid date found for PMID " + pmid + " with\n" + "article year = '" + articleYearString + "', month = '"
+                    + articleMonthString + "', day = '" + articleDayString + "\n" + "pub year = '" + pubYearString + "', month = '" + pubMonthString
+                    + "', day = '" + pubDayString + "\n" + "', medline date = '" + medlineString + "'");
         } else {
-            Map<String, String> field2Value = Map.of("pmid", pmid, "pmid_version", pmid_version, "date", date);
-            connectionWrapper.insertIntoTable(TABLE_NAME, field2Value);
+            insertDate(pmid, pmid_version, epochDay);
         }
     }
 
-    private String parseDate(String articleYearString, String articleMonthString, String articleDayString, String pubYearString, String pubMonthString,
-                             String pubDayString, String medlineString) {
-        String year = null;
-        if (articleYearString == null) {
-            if (pubYearString == null) {
-                if (medlineString == null) {
-                    return null;
-                } else {
-                    Matcher matcher = yearPattern.matcher(medlineString);
-                    if (matcher.find())
-                        year = matcher.group();
-                }
-            } else {
-                year = pubYearString;
-            }
-        } else {
-            year = articleYearString;
-        }
-        String month;
-        if (articleMonthString == null) {
-            if (pubMonthString == null) {
-                month = "1";
-                if (medlineString != null) {
-                    for (int i = 0; i < months.size(); i++) {
-                        if (medlineString.contains(months.get(i))) {
-                            month = Integer.toString(i + 1);
-                            break;
-                        }
-                    }
-                }
-            } else {
-                try {
-                    month = Integer.toString(Integer.parseInt(pubMonthString));
-                } catch (NumberFormatException e) {
-                    month = Integer.toString(months.indexOf(pubMonthString) + 1);
-                }
-            }
+    private void insertDate(String pmid, String pmidVersion, long epochDay) {
+        connectionWrapper.insertTypedValues(TABLE_NAME, FIELDS, Integer.parseInt(pmid), Integer.parseInt(pmidVersion), LocalDate.ofEpochDay(epochDay));
+    }
 
-        } else {
-            try {
-                month = Integer.toString(Integer.parseInt(articleMonthString));
-            } catch (NumberFormatException e) {
-                month = Integer.toString(months.indexOf(articleMonthString) + 1);
-            }
+    /**
+     * Derives the publication date, formatted as yyyy-MM-dd.
+     *
+     * @return the date, or null if no valid date can be derived
+     * @see #deriveEpochDay
+     */
+    public static String deriveDate(String articleYearString, String articleMonthString, String articleDayString, String pubYearString,
+                                    String pubMonthString, String pubDayString, String medlineString) {
+        long epochDay = deriveEpochDay(articleYearString, articleMonthString, articleDayString, pubYearString, pubMonthString, pubDayString,
+                medlineString);
+        return epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay).toString();
+    }
+
+    /**
+     * Derives the publication date from the article date, falling back to the journal issue publication date, and then to the year and month mentioned
+     * in the MedlineDate. Missing months and days default to 1.
+     *
+     * @return the number of days since 1970-01-01, or NO_DATE if no valid date can be derived
+     */
+    public static long deriveEpochDay(String articleYearString, String articleMonthString, String articleDayString, String pubYearString,
+                                      String pubMonthString, String pubDayString, String medlineString) {
+        int year;
+        if (articleYearString != null)
+            year = parseNumber(articleYearString);
+        else if (pubYearString != null)
+            year = parseNumber(pubYearString);
+        else if (medlineString != null)
+            year = findYear(medlineString);
+        else
+            return NO_DATE;
+        if (year < 0 || year > MAX_YEAR)
+            return NO_DATE;
+
+        int month;
+        if (articleMonthString != null)
+            month = parseMonth(articleMonthString);
+        else if (pubMonthString != null)
+            month = parseMonth(pubMonthString);
+        else if (medlineString != null)
+            month = findMonth(medlineString);
+        else
+            month = 1;
+
+        int day;
+        if (articleDayString != null)
+            day = parseNumber(articleDayString);
+        else if (pubDayString != null)
+            day = parseNumber(pubDayString);
+        else
+            day = 1;
+        if (day < 0)
+            return NO_DATE;
+
+        // Roll over out-of-range months and days:
+        year += Math.floorDiv(month - 1, 12);
+        month = Math.floorMod(month - 1, 12) + 1;
+        return toEpochDay(year, month) + day - 1;
+    }
+
+    /**
+     * @return the epoch day of the first day of the month
+     */
+    private static long toEpochDay(long year, int month) {
+        // Days before the month, counting years from March so the leap day is at the end of the year:
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * @return the value of a string of digits, or -1 if the string is empty or contains other characters
+     */
+    private static int parseNumber(String value) {
+        int length = value.length();
+        if (length == 0 || length > 9)
+            return -1;
+        int number = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            number = number * 10 + (c - '0');
         }
-        String day;
-        if (articleDayString == null) {
-            if (pubDayString == null) {
-                day = "1";
-            } else {
-                day = pubDayString;
-            }
-        } else {
-            day = articleDayString;
+        return number;
+    }
+
+    /**
+     * Months are either numbers or three-letter abbreviations. Unknown months are 0, which rolls over to December of the previous year.
+     */
+    private static int parseMonth(String value) {
+        int month = parseNumber(value);
+        if (month != -1)
+            return month;
+        return switch (value) {
+            case "Jan" -> 1;
+            case "Feb" -> 2;
+            case "Mar" -> 3;
+            case "Apr" -> 4;
+            case "May" -> 5;
+            case "Jun" -> 6;
+            case "Jul" -> 7;
+            case "Aug" -> 8;
+            case "Sep" -> 9;
+            case "Oct" -> 10;
+            case "Nov" -> 11;
+            case "Dec" -> 12;
+            default -> 0;
+        };
+    }
+
+    /**
+     * @return the first year between 1900 and 2099 in a MedlineDate (e.g. "1998 Dec-1999 Jan"), or -1 if there is none
+     */
+    private static int findYear(String medlineString) {
+        for (int i = 0; i + 4 <= medlineString.length(); i++) {
+            char first = medlineString.charAt(i);
+            char second = medlineString.charAt(i + 1);
+            if (((first == '1' && second == '9') || (first == '2' && second == '0')) && isDigit(medlineString.charAt(i + 2))
+                    && isDigit(medlineString.charAt(i + 3)))
+                return (first - '0') * 1000 + (second - '0') * 100 + (medlineString.charAt(i + 2) - '0') * 10 + (medlineString.charAt(i + 3) - '0');
         }
-        return year + "-" + month + "-" + day;
+        return -1;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * @return the earliest month in calendar order that is mentioned in a MedlineDate, or 1 if there is none
+     */
+    private static int findMonth(String medlineString) {
+        for (int i = 0; i < MONTHS.length; i++)
+            if (medlineString.contains(MONTHS[i]))
+                return i + 1;
+        return 1;
     }
 }
@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.medlineXmlToDatabase;
+
+import ohdsi.databases.ConnectionWrapper;
+import ohdsi.databases.DbType;
+import ohdsi.utilities.files.IniFile;
+import ohdsi.utilities.files.Row;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rebuilds the pmid_to_date table from the date fields of the loaded citations, without re-reading the XML files. The date fields are streamed through
+ * the same derivation used while parsing, in chunks of PMIDs that are processed in parallel, each worker using its own connection. Each chunk replaces
+ * the existing dates in its PMID range in a single transaction.
+ * <p>
+ * The article date and publication date can either be sub-tables or flattened into the medcit table, depending on the analysis, so the query is built
+ * from the columns that are actually present.
+ */
+public class PmidToDateRebuilder {
+
+    private static final Logger log = LogManager.getLogger(PmidToDateRebuilder.class.getName());
+    private static final int PMIDS_PER_CHUNK = 100_000;
+    private static final String ARTICLE_DATE_TABLE = "MedlineCitation_Article_ArticleDate";
+    private static final String PUB_DATE_TABLE = "MedlineCitation_Article_Journal_JournalIssue_PubDate";
+    private static final String ARTICLE_DATE_PREFIX = "Article_ArticleDate_";
+    private static final String PUB_DATE_PREFIX = "Article_Journal_JournalIssue_PubDate_";
+    private static final List<String> FIELDS = List.of("pmid", "pmid_version", "date");
+
+    private final String server;
+    private final String schema;
+    private final String user;
+    private final String password;
+    private final DbType dbType;
+    private String query;
+
+    public static void main(String[] args) {
+        IniFile iniFile = new IniFile(args[0]);
+        String threads = iniFile.get("REBUILD_THREADS");
+        String partitionSize = iniFile.get("PMID_PARTITION_SIZE");
+        PmidToDateRebuilder rebuilder = new PmidToDateRebuilder(iniFile.get("SERVER"), iniFile.get("SCHEMA"), iniFile.get("USER"),
+                iniFile.get("PASSWORD"), DbType.valueOf(iniFile.get("DATA_SOURCE_TYPE").toUpperCase()));
+        rebuilder.rebuild(threads.isEmpty() ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threads),
+                partitionSize.isEmpty() ? 0 : Integer.parseInt(partitionSize));
+    }
+
+    public PmidToDateRebuilder(String server, String schema, String user, String password, DbType dbType) {
+        this.server = server;
+        this.schema = schema;
+        this.user = user;
+        this.password = password;
+        this.dbType = dbType;
+    }
+
+    public void rebuild(int threads, int pmidPartitionSize) {
+        int minPmid;
+        int maxPmid;
+        try (ConnectionWrapper connectionWrapper = connect()) {
+            connectionWrapper.checkPmidPartitionSize(pmidPartitionSize);
+            List<String> tables = connectionWrapper.getTableNames(schema);
+            if (!tables.contains(PmidToDate.TABLE_NAME)) {
+                log.info("Creating table {}", PmidToDate.TABLE_NAME);
+                PmidToDate.createTable(connectionWrapper, pmidPartitionSize);
+            }
+            query = buildQuery(connectionWrapper, tables);
+            Row range = connectionWrapper.query("SELECT MIN(pmid) AS min_pmid, MAX(pmid) AS max_pmid FROM medcit").iterator().next();
+            if (range.get("min_pmid").isEmpty()) {
+                log.warn("No citations found");
+                return;
+            }
+            minPmid = Integer.parseInt(range.get("min_pmid"));
+            maxPmid = Integer.parseInt(range.get("max_pmid"));
+        }
+        int chunkCount = (maxPmid - minPmid) / PMIDS_PER_CHUNK + 1;
+        log.info("Rebuilding {} for PMIDs {} to {} in {} chunks using {} threads", PmidToDate.TABLE_NAME, minPmid, maxPmid, chunkCount, threads);
+
+        AtomicInteger nextChunk = new AtomicInteger();
+        AtomicInteger dateCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++)
+            futures.add(executor.submit(() -> {
+                try (ConnectionWrapper connectionWrapper = connect()) {
+                    int chunk;
+                    while ((chunk = nextChunk.getAndIncrement()) < chunkCount) {
+                        int start = minPmid + chunk * PMIDS_PER_CHUNK;
+                        dateCount.addAndGet(rebuildChunk(connectionWrapper, start, start + PMIDS_PER_CHUNK));
+                        if ((chunk + 1) % 100 == 0)
+                            log.info("Completed {} of {} chunks", chunk + 1, chunkCount);
+                    }
+                }
+            }));
+        try {
+            for (Future<?> future : futures)
+                future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error rebuilding " + PmidToDate.TABLE_NAME, e);
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info("Rebuilt {} with {} dates", PmidToDate.TABLE_NAME, dateCount.get());
+    }
+
+    private ConnectionWrapper connect() {
+        ConnectionWrapper connectionWrapper = new ConnectionWrapper(server, user, password, dbType);
+        connectionWrapper.use(schema);
+        connectionWrapper.setDateFormat();
+        return connectionWrapper;
+    }
+
+    /**
+     * Replaces the dates of all citations with start <= PMID < end
+     *
+     * @return the number of dates written
+     */
+    private int rebuildChunk(ConnectionWrapper connectionWrapper, int start, int end) {
+        List<Row> rows = new ArrayList<>();
+        connectionWrapper.query(query + " WHERE m.pmid >= " + start + " AND m.pmid < " + end).forEach(rows::add);
+        int count = 0;
+        connectionWrapper.setBatchMode(true);
+        connectionWrapper.execute("DELETE FROM " + PmidToDate.TABLE_NAME + " WHERE pmid >= " + start + " AND pmid < " + end);
+        for (Row row : rows) {
+            long epochDay = PmidToDate.deriveEpochDay(get(row, "article_year"), get(row, "article_month"), get(row, "article_day"),
+                    get(row, "pub_year"), get(row, "pub_month"), get(row, "pub_day"), get(row, "medline_date"));
+            if (epochDay == PmidToDate.NO_DATE)
+                log.warn("No valid date found for PMID {}", row.get("pmid"));
+            else {
+                connectionWrapper.insertTypedValues(PmidToDate.TABLE_NAME, FIELDS, Integer.parseInt(row.get("pmid")),
+                        Integer.parseInt(row.get("pmid_version")), LocalDate.ofEpochDay(epochDay));
+                count++;
+            }
+        }
+        connectionWrapper.setBatchMode(false);
+        return count;
+    }
+
+    /**
+     * Empty values are returned as null by the query, and should be treated as missing
+     */
+    private static String get(Row row, String field) {
+        String value = row.get(field);
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    private String buildQuery(ConnectionWrapper connectionWrapper, List<String> tables) {
+        Set<String> lookupColumns = new HashSet<>();
+        if (tables.contains(LookupCache.TABLE_NAME))
+            for (Row row : connectionWrapper.query("SELECT DISTINCT column_name FROM " + LookupCache.TABLE_NAME))
+                lookupColumns.add(row.get("column_name").toLowerCase());
+
+        StringBuilder from = new StringBuilder(" FROM " + getSource("medcit", lookupColumns) + " m");
+        Map<String, String> label2Column = new HashMap<>();
+        addColumns(connectionWrapper, "medcit", "m", "article_", ARTICLE_DATE_PREFIX, label2Column);
+        addColumns(connectionWrapper, "medcit", "m", "pub_", PUB_DATE_PREFIX, label2Column);
+        for (String[] subTable : new String[][]{{ARTICLE_DATE_TABLE, "ad", "article_"}, {PUB_DATE_TABLE, "pd", "pub_"}}) {
+            String table = Abbreviator.abbreviate(subTable[0]);
+            if (tables.contains(table)) {
+                String alias = subTable[1];
+                from.append(" LEFT JOIN ").append(getSource(table, lookupColumns)).append(" ").append(alias);
+                from.append(" ON ").append(alias).append(".pmid = m.pmid AND ").append(alias).append(".pmid_version = m.pmid_version AND ");
+                from.append(alias).append(".").append(Abbreviator.abbreviate(subTable[0] + "_Order")).append(" = 1");
+                addColumns(connectionWrapper, table, alias, subTable[2], "", label2Column);
+            }
+        }
+        StringBuilder select = new StringBuilder("SELECT m.pmid AS pmid, m.pmid_version AS pmid_version");
+        for (String label : List.of("article_year", "article_month", "article_day", "pub_year", "pub_month", "pub_day", "medline_date")) {
+            String column = label2Column.get(label);
+            select.append(", ").append(column == null ? "NULL" : column).append(" AS ").append(label);
+        }
+        log.info("Reading date fields using: {}{}", select, from);
+        return select.toString() + from;
+    }
+
+    /**
+     * Maps the date columns of the table to the query labels. Columns of a sub-table override flattened columns, since a table can only contain either.
+     */
+    private static void addColumns(ConnectionWrapper connectionWrapper, String table, String alias, String labelPrefix, String columnPrefix,
+                                   Map<String, String> label2Column) {
+        Map<String, String> field2Label = Map.of("Year", "year", "Month", "month", "Day", "day", "MedlineDate", "medline_date");
+        Set<String> columns = new HashSet<>();
+        for (ConnectionWrapper.FieldInfo fieldInfo : connectionWrapper.getFieldInfo(table))
+            columns.add(fieldInfo.name.toLowerCase());
+        for (Map.Entry<String, String> entry : field2Label.entrySet()) {
+            String column = Abbreviator.abbreviate(columnPrefix + entry.getKey());
+            if (columns.contains(column)) {
+                String label = entry.getValue().equals("medline_date") ? "medline_date" : labelPrefix + entry.getValue();
+                label2Column.put(label, alias + "." + column);
+            }
+        }
+    }
+
+    /**
+     * Reads from the view that restores lookup-encoded values, if any of the columns of the table are encoded
+     */
+    private static String getSource(String table, Set<String> lookupColumns) {
+        for (String column : lookupColumns)
+            if (column.startsWith(table + "."))
+                return table + LookupCache.VIEW_POSTFIX;
+        return table;
+    }
+}
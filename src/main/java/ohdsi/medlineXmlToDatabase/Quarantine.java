@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.medlineXmlToDatabase;
+
+import ohdsi.databases.ConnectionWrapper;
+import ohdsi.medlineXmlToDatabase.MedlineCitationAnalyser.VariableType;
+import org.dom4j.Element;
+import org.dom4j.Node;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Citations that cannot be loaded are stored in the medline_quarantine table, together with the table and error of the statement that failed and the
+ * raw XML of its enclosing PubmedArticle element. The XML can be wrapped in a PubmedArticleSet file to replay the citations once the cause has been
+ * fixed.
+ */
+public class Quarantine {
+
+    public static final String TABLE_NAME = "medline_quarantine";
+    private static final List<String> FIELDS = List.of("pmid", "pmid_version", "file_name", "table_name", "error", "xml", "quarantine_date");
+    private static final int MAX_PMID = 999_999_999;
+    private static final int MAX_ERROR_LENGTH = 4000;
+
+    private final ConnectionWrapper connectionWrapper;
+    private int count = 0;
+
+    public Quarantine(ConnectionWrapper connectionWrapper) {
+        this.connectionWrapper = connectionWrapper;
+    }
+
+    /**
+     * Creates the quarantine table if it does not exist yet
+     */
+    public static void createTable(ConnectionWrapper connectionWrapper, String schema) {
+        if (connectionWrapper.getTableNames(schema).contains(TABLE_NAME))
+            return;
+        List<VariableType> types = List.of(new VariableType(1, MAX_PMID), new VariableType(1, Short.MAX_VALUE), VariableType.text(255),
+                VariableType.text(255), VariableType.text(MAX_ERROR_LENGTH), VariableType.text(Integer.MAX_VALUE), VariableType.date());
+        connectionWrapper.createTableUsingVariableTypes(TABLE_NAME, FIELDS, types, null);
+    }
+
+    /**
+     * Adds the citation to the quarantine table. In batch mode, the row is committed with the batch.
+     *
+     * @param citation The MedlineCitation node. The XML of its parent PubmedArticle element is stored
+     * @param table    The table of the statement that failed, or null if unknown
+     */
+    public void add(String fileName, Node citation, String table, Throwable error) {
+        Element pmidNode = (Element) citation.selectSingleNode("./PMID");
+        String message = error.getMessage() == null ? error.getClass().getName() : error.getMessage();
+        if (message.length() > MAX_ERROR_LENGTH)
+            message = message.substring(0, MAX_ERROR_LENGTH);
+        connectionWrapper.insertTypedValues(TABLE_NAME, FIELDS, Integer.parseInt(pmidNode.getTextTrim()), Integer.parseInt(pmidNode.attributeValue("Version")),
+                fileName, table, message, citation.getParent().asXML(), Date.valueOf(LocalDate.now()));
+        count++;
+    }
+
+    /**
+     * @return the number of citations quarantined by this instance
+     */
+    public int getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,218 @@
+package ohdsi.meshXmlToDatabase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Compact, read-only index of the MeSH tree that answers descendant and ancestor queries without a database. Every tree number is a node, numbered in
+ * pre-order, so the subtree of a node is the interval [node, end(node)). A descriptor can have several tree numbers, so each UI maps to a list of nodes.
+ * Like the mesh_ancestor table, a descriptor counts as its own ancestor and descendant.
+ * <p>
+ * The index is stored as a file of int arrays that is memory-mapped when loaded, so loading is almost instantaneous and the index can be shared between
+ * processes through the page cache.
+ */
+public class MeshHierarchyIndex {
+
+    private static final int MAGIC = 0x4D455348; // "MESH"
+    private static final int VERSION = 1;
+
+    private final String[] uis;
+    private final Map<String, Integer> uiToId;
+    private final IntBuffer nodeUis;
+    private final IntBuffer nodeEnds;
+    private final IntBuffer nodeParents;
+    private final IntBuffer uiNodeOffsets;
+    private final IntBuffer uiNodes;
+
+    private MeshHierarchyIndex(String[] uis, IntBuffer nodeUis, IntBuffer nodeEnds, IntBuffer nodeParents, IntBuffer uiNodeOffsets, IntBuffer uiNodes) {
+        this.uis = uis;
+        this.nodeUis = nodeUis;
+        this.nodeEnds = nodeEnds;
+        this.nodeParents = nodeParents;
+        this.uiNodeOffsets = uiNodeOffsets;
+        this.uiNodes = uiNodes;
+        uiToId = new HashMap<>(uis.length * 2);
+        for (int i = 0; i < uis.length; i++)
+            uiToId.put(uis[i], i);
+    }
+
+    /**
+     * Builds the index from the tree numbers collected by the MainMeshParser. Tree numbers consist of fixed-length segments separated by dots, so sorting
+     * them alphabetically puts them in pre-order.
+     */
+    public static MeshHierarchyIndex build(Map<String, String> treeNumberToUi) {
+        String[] treeNumbers = treeNumberToUi.keySet().toArray(new String[0]);
+        Arrays.sort(treeNumbers);
+        String[] uis = new TreeSet<>(treeNumberToUi.values()).toArray(new String[0]);
+        Map<String, Integer> uiToId = new HashMap<>(uis.length * 2);
+        for (int i = 0; i < uis.length; i++)
+            uiToId.put(uis[i], i);
+
+        int nodeCount = treeNumbers.length;
+        int[] nodeUis = new int[nodeCount];
+        int[] nodeEnds = new int[nodeCount];
+        int[] nodeParents = new int[nodeCount];
+        int[] uiNodeCounts = new int[uis.length];
+        int[] stack = new int[nodeCount];
+        int depth = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            while (depth > 0 && !treeNumbers[node].startsWith(treeNumbers[stack[depth - 1]] + "."))
+                nodeEnds[stack[--depth]] = node;
+            nodeParents[node] = depth == 0 ? -1 : stack[depth - 1];
+            stack[depth++] = node;
+            nodeUis[node] = uiToId.get(treeNumberToUi.get(treeNumbers[node]));
+            uiNodeCounts[nodeUis[node]]++;
+        }
+        while (depth > 0)
+            nodeEnds[stack[--depth]] = nodeCount;
+
+        int[] uiNodeOffsets = new int[uis.length + 1];
+        for (int i = 0; i < uis.length; i++)
+            uiNodeOffsets[i + 1] = uiNodeOffsets[i] + uiNodeCounts[i];
+        int[] uiNodes = new int[nodeCount];
+        int[] cursors = Arrays.copyOf(uiNodeOffsets, uis.length);
+        for (int node = 0; node < nodeCount; node++)
+            uiNodes[cursors[nodeUis[node]]++] = node;
+
+        return new MeshHierarchyIndex(uis, IntBuffer.wrap(nodeUis), IntBuffer.wrap(nodeEnds), IntBuffer.wrap(nodeParents), IntBuffer.wrap(uiNodeOffsets),
+                IntBuffer.wrap(uiNodes));
+    }
+
+    /**
+     * File layout (big-endian ints): magic, version, UI count, node count, total UI byte length, UI byte offsets, node UIs, node ends, node parents, UI
+     * node offsets, UI nodes, followed by the UTF-8 bytes of the UIs.
+     */
+    public void write(Path path) {
+        byte[][] uiBytes = new byte[uis.length][];
+        int uiByteLength = 0;
+        for (int i = 0; i < uis.length; i++) {
+            uiBytes[i] = uis[i].getBytes(StandardCharsets.UTF_8);
+            uiByteLength += uiBytes[i].length;
+        }
+        int nodeCount = nodeUis.limit();
+        int intCount = 5 + (uis.length + 1) + 3 * nodeCount + (uis.length + 1) + nodeCount;
+        ByteBuffer buffer = ByteBuffer.allocate(intCount * Integer.BYTES + uiByteLength);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(uis.length).putInt(nodeCount).putInt(uiByteLength);
+        int offset = 0;
+        buffer.putInt(offset);
+        for (byte[] bytes : uiBytes) {
+            offset += bytes.length;
+            buffer.putInt(offset);
+        }
+        for (IntBuffer array : List.of(nodeUis, nodeEnds, nodeParents, uiNodeOffsets, uiNodes))
+            for (int i = 0; i < array.limit(); i++)
+                buffer.putInt(array.get(i));
+        for (byte[] bytes : uiBytes)
+            buffer.put(bytes);
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing MeSH index to " + path, e);
+        }
+    }
+
+    public static MeshHierarchyIndex load(Path path) {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading MeSH index from " + path, e);
+        }
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+            throw new RuntimeException("File " + path + " is not a MeSH index of version " + VERSION);
+        int uiCount = buffer.getInt();
+        int nodeCount = buffer.getInt();
+        int uiByteLength = buffer.getInt();
+        IntBuffer uiByteOffsets = slice(buffer, uiCount + 1);
+        IntBuffer nodeUis = slice(buffer, nodeCount);
+        IntBuffer nodeEnds = slice(buffer, nodeCount);
+        IntBuffer nodeParents = slice(buffer, nodeCount);
+        IntBuffer uiNodeOffsets = slice(buffer, uiCount + 1);
+        IntBuffer uiNodes = slice(buffer, nodeCount);
+        byte[] uiBytes = new byte[uiByteLength];
+        buffer.get(uiBytes);
+        String[] uis = new String[uiCount];
+        for (int i = 0; i < uiCount; i++)
+            uis[i] = new String(uiBytes, uiByteOffsets.get(i), uiByteOffsets.get(i + 1) - uiByteOffsets.get(i), StandardCharsets.UTF_8);
+        return new MeshHierarchyIndex(uis, nodeUis, nodeEnds, nodeParents, uiNodeOffsets, uiNodes);
+    }
+
+    private static IntBuffer slice(ByteBuffer buffer, int length) {
+        IntBuffer slice = buffer.slice().asIntBuffer();
+        slice.limit(length);
+        buffer.position(buffer.position() + length * Integer.BYTES);
+        return slice.slice();
+    }
+
+    public boolean contains(String ui) {
+        return uiToId.containsKey(ui);
+    }
+
+    /**
+     * @return the UIs of the descriptor and all its descendants, or an empty list if the UI is not in the tree
+     */
+    public List<String> getDescendants(String ui) {
+        BitSet descendants = new BitSet(uis.length);
+        Integer id = uiToId.get(ui);
+        if (id != null)
+            for (int i = uiNodeOffsets.get(id); i < uiNodeOffsets.get(id + 1); i++) {
+                int node = uiNodes.get(i);
+                for (int descendant = node; descendant < nodeEnds.get(node); descendant++)
+                    descendants.set(nodeUis.get(descendant));
+            }
+        return toUis(descendants);
+    }
+
+    /**
+     * @return the UIs of the descriptor and all its ancestors, or an empty list if the UI is not in the tree
+     */
+    public List<String> getAncestors(String ui) {
+        BitSet ancestors = new BitSet(uis.length);
+        Integer id = uiToId.get(ui);
+        if (id != null)
+            for (int i = uiNodeOffsets.get(id); i < uiNodeOffsets.get(id + 1); i++)
+                for (int ancestor = uiNodes.get(i); ancestor != -1; ancestor = nodeParents.get(ancestor))
+                    ancestors.set(nodeUis.get(ancestor));
+        return toUis(ancestors);
+    }
+
+    /**
+     * @return true if any tree number of the descendant lies in the subtree of any tree number of the ancestor
+     */
+    public boolean isDescendantOf(String descendantUi, String ancestorUi) {
+        Integer descendantId = uiToId.get(descendantUi);
+        Integer ancestorId = uiToId.get(ancestorUi);
+        if (descendantId == null || ancestorId == null)
+            return false;
+        for (int i = uiNodeOffsets.get(ancestorId); i < uiNodeOffsets.get(ancestorId + 1); i++) {
+            int ancestor = uiNodes.get(i);
+            for (int j = uiNodeOffsets.get(descendantId); j < uiNodeOffsets.get(descendantId + 1); j++) {
+                int descendant = uiNodes.get(j);
+                if (descendant >= ancestor && descendant < nodeEnds.get(ancestor))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private List<String> toUis(BitSet ids) {
+        List<String> result = new ArrayList<>(ids.cardinality());
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1))
+            result.add(uis[id]);
+        return result;
+    }
+}
@@ -0,0 +1,210 @@
+package ohdsi.meshXmlToDatabase;
+
+import ohdsi.databases.ConnectionWrapper;
+import ohdsi.utilities.collections.OneToManyList;
+import ohdsi.utilities.files.Row;
+import ohdsi.utilities.files.RowWriter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Updates existing MeSH tables in place instead of dropping and reloading them. The parsers write into the in-memory writers of this class, after
+ * which apply() compares a content hash per UI (covering the term and its relationships) with the same hash computed from the current tables, and only
+ * deletes and inserts the records that changed. Ancestor pairs are compared directly. The whole difference is applied in a single transaction, so
+ * readers never see a partial update, and after a failure the next run computes the difference again from the unchanged tables.
+ */
+public class MeshIncrementalUpdater {
+
+    public static final List<String> TABLES = List.of("mesh_term", "mesh_relationship", "mesh_ancestor");
+    private static final Logger log = LogManager.getLogger(MeshIncrementalUpdater.class.getName());
+    private static final int STATEMENTS_PER_FLUSH = 1000;
+
+    private final ConnectionWrapper connectionWrapper;
+    private final Map<String, Row> uiToTerm = new HashMap<>();
+    private final OneToManyList<String, Row> uiToRelationships = new OneToManyList<>();
+    private final Map<String, Row> pairToAncestor = new HashMap<>();
+    private int statementCount = 0;
+
+    public MeshIncrementalUpdater(ConnectionWrapper connectionWrapper) {
+        this.connectionWrapper = connectionWrapper;
+    }
+
+    public RowWriter getTermWriter() {
+        return new CollectingWriter(row -> uiToTerm.put(row.get("ui"), row));
+    }
+
+    public RowWriter getRelationshipWriter() {
+        return new CollectingWriter(row -> uiToRelationships.put(row.get("ui_1"), row));
+    }
+
+    public RowWriter getAncestorWriter() {
+        return new CollectingWriter(row -> pairToAncestor.put(getPair(row), row));
+    }
+
+    /**
+     * Applies the differences between the parsed MeSH files and the current tables.
+     */
+    public synchronized void apply() {
+        Map<String, Long> uiToNewHash = new HashMap<>();
+        for (Map.Entry<String, Row> entry : uiToTerm.entrySet())
+            uiToNewHash.put(entry.getKey(), computeHash(entry.getValue(), uiToRelationships.get(entry.getKey())));
+        Map<String, Long> uiToOldHash = loadCurrentHashes();
+
+        Set<String> toDelete = new HashSet<>();
+        Set<String> toInsert = new HashSet<>();
+        for (Map.Entry<String, Long> entry : uiToOldHash.entrySet()) {
+            Long newHash = uiToNewHash.get(entry.getKey());
+            if (newHash == null)
+                toDelete.add(entry.getKey());
+            else if (!newHash.equals(entry.getValue())) {
+                toDelete.add(entry.getKey());
+                toInsert.add(entry.getKey());
+            }
+        }
+        for (String ui : uiToNewHash.keySet())
+            if (!uiToOldHash.containsKey(ui))
+                toInsert.add(ui);
+        log.info("MeSH terms: {} unchanged, {} removed or changed, {} added or changed", uiToNewHash.size() - toInsert.size(), toDelete.size(),
+                toInsert.size());
+
+        connectionWrapper.setBatchMode(true);
+        try {
+            for (String ui : toDelete) {
+                addStatement("DELETE FROM mesh_term WHERE ui = '" + escape(ui) + "'");
+                addStatement("DELETE FROM mesh_relationship WHERE ui_1 = '" + escape(ui) + "'");
+            }
+            for (String ui : toInsert) {
+                insert("mesh_term", uiToTerm.get(ui));
+                for (Row relationship : uiToRelationships.get(ui))
+                    insert("mesh_relationship", relationship);
+            }
+            applyAncestors();
+            connectionWrapper.setBatchMode(false);
+        } catch (RuntimeException e) {
+            connectionWrapper.abortBatch();
+            throw e;
+        }
+    }
+
+    private void applyAncestors() {
+        int unchanged = 0;
+        int updated = 0;
+        int deleted = 0;
+        List<Row> oldRows = new ArrayList<>();
+        connectionWrapper.query("SELECT ancestor_ui, descendant_ui, max_distance, min_distance FROM mesh_ancestor").forEach(oldRows::add);
+        Set<String> seen = new HashSet<>();
+        for (Row oldRow : oldRows) {
+            String pair = getPair(oldRow);
+            seen.add(pair);
+            Row newRow = pairToAncestor.get(pair);
+            String where = " WHERE ancestor_ui = '" + escape(oldRow.get("ancestor_ui")) + "' AND descendant_ui = '" + escape(oldRow.get("descendant_ui")) + "'";
+            if (newRow == null) {
+                addStatement("DELETE FROM mesh_ancestor" + where);
+                deleted++;
+            } else if (!newRow.get("max_distance").equals(oldRow.get("max_distance")) || !newRow.get("min_distance").equals(oldRow.get("min_distance"))) {
+                addStatement("UPDATE mesh_ancestor SET max_distance = " + newRow.get("max_distance") + ", min_distance = " + newRow.get("min_distance") + where);
+                updated++;
+            } else
+                unchanged++;
+        }
+        int inserted = 0;
+        for (Map.Entry<String, Row> entry : pairToAncestor.entrySet())
+            if (!seen.contains(entry.getKey())) {
+                insert("mesh_ancestor", entry.getValue());
+                inserted++;
+            }
+        log.info("MeSH ancestors: {} unchanged, {} updated, {} deleted, {} inserted", unchanged, updated, deleted, inserted);
+    }
+
+    private Map<String, Long> loadCurrentHashes() {
+        OneToManyList<String, Row> oldRelationships = new OneToManyList<>();
+        for (Row row : connectionWrapper.query("SELECT ui_1, ui_2, relationship_id FROM mesh_relationship"))
+            oldRelationships.put(row.get("ui_1"), row);
+        Map<String, Long> uiToHash = new HashMap<>();
+        for (Row row : connectionWrapper.query("SELECT ui, name, supplement FROM mesh_term"))
+            uiToHash.put(row.get("ui"), computeHash(row, oldRelationships.get(row.get("ui"))));
+        return uiToHash;
+    }
+
+    /**
+     * Hashes the content of a term and its relationships, independent of the order of the relationships.
+     */
+    private static long computeHash(Row term, List<Row> relationships) {
+        List<String> relationshipStrings = new ArrayList<>(relationships.size());
+        for (Row relationship : relationships)
+            relationshipStrings.add(relationship.get("ui_2") + "\t" + relationship.get("relationship_id"));
+        relationshipStrings.sort(null);
+        String content = term.get("name") + "\n" + term.get("supplement") + "\n" + String.join("\n", relationshipStrings);
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(content.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String getPair(Row row) {
+        return row.get("ancestor_ui") + "\t" + row.get("descendant_ui");
+    }
+
+    private static String escape(String value) {
+        return value.replace("'", "''");
+    }
+
+    /**
+     * Inserts the row, leaving empty values NULL as the full load does
+     */
+    private void insert(String table, Row row) {
+        Map<String, String> field2Value = new LinkedHashMap<>();
+        for (String field : row.getFieldNames())
+            if (!row.get(field).isEmpty())
+                field2Value.put(field, row.get(field));
+        connectionWrapper.insertIntoTable(table, field2Value);
+        countStatement();
+    }
+
+    private void addStatement(String sql) {
+        connectionWrapper.execute(sql);
+        countStatement();
+    }
+
+    private void countStatement() {
+        if (++statementCount % STATEMENTS_PER_FLUSH == 0)
+            connectionWrapper.flushBatch();
+    }
+
+    /**
+     * Collects rows in memory. The parsers run concurrently, so writes are synchronized on the updater.
+     */
+    private class CollectingWriter implements RowWriter {
+        private final Consumer<Row> consumer;
+
+        private CollectingWriter(Consumer<Row> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void write(Row row) {
+            synchronized (MeshIncrementalUpdater.this) {
+                consumer.accept(row);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -3,16 +3,24 @@ package ohdsi.meshXmlToDatabase;
 import ohdsi.databases.ConnectionWrapper;
 import ohdsi.databases.DbType;
 import ohdsi.databases.InsertableDbTable;
-import ohdsi.utilities.StringUtilities;
+import ohdsi.utilities.collections.LongIntHashMap;
+import ohdsi.utilities.collections.OneToManyList;
 import ohdsi.utilities.files.IniFile;
 import ohdsi.utilities.files.Row;
+import ohdsi.utilities.files.RowWriter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.File;
-import java.util.Arrays;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
 public class MeshParserMain {
 
@@ -24,11 +32,18 @@ public class MeshParserMain {
         IniFile iniFile = new IniFile(args[0]);
         MeshParserMain meshParser = new MeshParserMain();
         meshParser.parseMesh(iniFile.get("MESH_XML_FOLDER"), iniFile.get("SERVER"), iniFile.get("SCHEMA"), iniFile.get("USER"),
-                iniFile.get("PASSWORD"), iniFile.get("DATA_SOURCE_TYPE"));
+                iniFile.get("PASSWORD"), iniFile.get("DATA_SOURCE_TYPE"), iniFile.get("MESH_INCREMENTAL").equalsIgnoreCase("true"));
+        if (!iniFile.get("MESH_INDEX_FILE").equals(""))
+            meshParser.writeHierarchyIndex(iniFile.get("MESH_INDEX_FILE"));
         log.info("Finished parsing MeSH!");
     }
 
-    private void parseMesh(String folder, String server, String schema, String user, String password, String dateSourceType) {
+    private void writeHierarchyIndex(String fileName) {
+        log.info("Writing MeSH hierarchy index to {}", fileName);
+        MeshHierarchyIndex.build(treeNumberToUi).write(Path.of(fileName));
+    }
+
+    private void parseMesh(String folder, String server, String schema, String user, String password, String dateSourceType, boolean incremental) {
         String meshFile = null;
         String meshSupplementFile = null;
         for (File file : new File(folder).listFiles()) {
@@ -50,65 +65,141 @@ public class MeshParserMain {
             throw new RuntimeException("Error: No main MeSH file found.");
         if (meshSupplementFile == null)
             throw new RuntimeException("Error: No supplementary MeSH file found.");
-        ConnectionWrapper connectionWrapper = new ConnectionWrapper(server, user, password, DbType.valueOf(dateSourceType.toUpperCase()));
-        connectionWrapper.use(schema);
-
+        DbType dbType = DbType.valueOf(dateSourceType.toUpperCase());
         treeNumberToUi = new HashMap<>();
-        InsertableDbTable outTerms = new InsertableDbTable(connectionWrapper, "mesh_term");
-        InsertableDbTable outRelationship = new InsertableDbTable(connectionWrapper, "mesh_relationship");
+        if (incremental) {
+            ConnectionWrapper connectionWrapper = connect(server, schema, user, password, dbType);
+            if (connectionWrapper.getTableNames(schema).containsAll(MeshIncrementalUpdater.TABLES)) {
+                log.info("Updating existing MeSH tables");
+                MeshIncrementalUpdater updater = new MeshIncrementalUpdater(connectionWrapper);
+                parseFiles(meshFile, meshSupplementFile, updater.getTermWriter(), updater.getRelationshipWriter(), updater::getAncestorWriter);
+                updater.apply();
+                connectionWrapper.close();
+                return;
+            }
+            log.info("MeSH tables not found, doing a full load instead");
+            connectionWrapper.close();
+        }
 
-        MainMeshParser.parse(meshFile, outTerms, outRelationship, treeNumberToUi);
-        SupplementaryMeshParser.parse(meshSupplementFile, outTerms, outRelationship);
+        // Each table gets its own connection, so the parsers and the ancestor table can be written concurrently:
+        ConnectionWrapper termConnection = connect(server, schema, user, password, dbType);
+        ConnectionWrapper relationshipConnection = connect(server, schema, user, password, dbType);
+        ConnectionWrapper ancestorConnection = connect(server, schema, user, password, dbType);
+
+        InsertableDbTable outTerms = new InsertableDbTable(termConnection, "mesh_term");
+        InsertableDbTable outRelationship = new InsertableDbTable(relationshipConnection, "mesh_relationship");
+        parseFiles(meshFile, meshSupplementFile, outTerms, outRelationship, () -> new InsertableDbTable(ancestorConnection, "mesh_ancestor"));
         outTerms.close();
         outRelationship.close();
-
-        InsertableDbTable outAncestor = new InsertableDbTable(connectionWrapper, "mesh_ancestor");
-        generateAncestorTable(outAncestor);
-        outAncestor.close();
+        termConnection.close();
+        relationshipConnection.close();
+        ancestorConnection.close();
     }
 
-    private void generateAncestorTable(InsertableDbTable outAncestor) {
-        Map<String, PairInfo> pairToInfo = new HashMap<>();
-        for (Map.Entry<String, String> entry : treeNumberToUi.entrySet()) {
-            String treeNumber1 = entry.getKey();
-            String[] parts = treeNumber1.split("\\.");
-            String ui1 = entry.getValue();
-            for (int i = 0; i < parts.length; i++) {
-                int distance = parts.length - i - 1;
-                String treeNumber2 = StringUtilities.join(Arrays.copyOfRange(parts, 0, i + 1), ".");
-                String ui2 = treeNumberToUi.get(treeNumber2);
-                PairInfo pairInfo = pairToInfo.get(ui1 + "_" + ui2);
-                if (pairInfo == null) {
-                    pairInfo = new PairInfo(distance, distance);
-                    pairToInfo.put(ui1 + "_" + ui2, pairInfo);
-                } else {
-                    if (pairInfo.maxDistance < distance)
-                        pairInfo.maxDistance = distance;
-                    if (pairInfo.minDistance > distance)
-                        pairInfo.minDistance = distance;
+    /**
+     * Parses the main and supplement files concurrently. The ancestor table only depends on the tree numbers in the main file, so it is generated as soon
+     * as the main file has been parsed.
+     */
+    private void parseFiles(String meshFile, String meshSupplementFile, RowWriter outTerms, RowWriter outRelationship,
+                            Supplier<RowWriter> outAncestorSupplier) {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CompletableFuture<Void> main = CompletableFuture.runAsync(() -> MainMeshParser.parse(meshFile, outTerms, outRelationship, treeNumberToUi),
+                    executor);
+            CompletableFuture<Void> supplement = CompletableFuture.runAsync(() -> SupplementaryMeshParser.parse(meshSupplementFile, outTerms,
+                    outRelationship), executor);
+            CompletableFuture<Void> ancestor = main.thenRun(() -> {
+                try (RowWriter outAncestor = outAncestorSupplier.get()) {
+                    generateAncestorTable(treeNumberToUi, outAncestor);
                 }
-            }
+            });
+            CompletableFuture.allOf(supplement, ancestor).join();
+        } finally {
+            executor.shutdown();
         }
+    }
 
-        for (Map.Entry<String, PairInfo> pairPariInfo : pairToInfo.entrySet()) {
-            String pair = pairPariInfo.getKey();
-            PairInfo pairInfo = pairPariInfo.getValue();
+    private ConnectionWrapper connect(String server, String schema, String user, String password, DbType dbType) {
+        ConnectionWrapper connectionWrapper = new ConnectionWrapper(server, user, password, dbType);
+        connectionWrapper.use(schema);
+        return connectionWrapper;
+    }
+
+    /**
+     * Computes the transitive closure of the MeSH tree. Tree numbers and UIs are interned to ints, so each (descendant, ancestor) pair can be stored as a
+     * single long. Each branch of the tree is processed in parallel, after which the results are merged, since a descriptor can appear in several branches.
+     */
+    static void generateAncestorTable(Map<String, String> treeNumberToUi, RowWriter outAncestor) {
+        int treeNumberCount = treeNumberToUi.size();
+        String[] treeNumbers = treeNumberToUi.keySet().toArray(new String[0]);
+        Map<String, Integer> treeNumberToIndex = new HashMap<>(treeNumberCount * 2);
+        for (int i = 0; i < treeNumberCount; i++)
+            treeNumberToIndex.put(treeNumbers[i], i);
+
+        List<String> uis = new ArrayList<>();
+        Map<String, Integer> uiToId = new HashMap<>();
+        int[] uiIds = new int[treeNumberCount];
+        int[] parents = new int[treeNumberCount];
+        for (int i = 0; i < treeNumberCount; i++) {
+            uiIds[i] = uiToId.computeIfAbsent(treeNumberToUi.get(treeNumbers[i]), ui -> {
+                uis.add(ui);
+                return uis.size() - 1;
+            });
+            int lastDot = treeNumbers[i].lastIndexOf('.');
+            parents[i] = lastDot == -1 ? -1 : treeNumberToIndex.getOrDefault(treeNumbers[i].substring(0, lastDot), -1);
+        }
+
+        OneToManyList<Integer, Integer> branchToTreeNumbers = new OneToManyList<>();
+        for (int i = 0; i < treeNumberCount; i++) {
+            int root = i;
+            while (parents[root] != -1)
+                root = parents[root];
+            branchToTreeNumbers.put(root, i);
+        }
+
+        List<LongIntHashMap> branchPairs = branchToTreeNumbers.values()
+                .parallelStream()
+                .map(branch -> computeBranchClosure(branch, uiIds, parents))
+                .toList();
+        LongIntHashMap pairToDistances = new LongIntHashMap(treeNumberCount * 8);
+        for (LongIntHashMap pairs : branchPairs)
+            pairs.forEach((pair, distances) -> addDistances(pairToDistances, pair, distances));
+        log.info("Writing {} ancestor pairs", pairToDistances.size());
+
+        pairToDistances.forEach((pair, distances) -> {
             Row row = new Row();
-            row.add("ancestor_ui", pair.split("_")[1]);
-            row.add("descendant_ui", pair.split("_")[0]);
-            row.add("max_distance", pairInfo.maxDistance);
-            row.add("min_distance", pairInfo.minDistance);
+            row.add("ancestor_ui", uis.get((int) pair));
+            row.add("descendant_ui", uis.get((int) (pair >>> 32)));
+            row.add("max_distance", distances & 0xFFFF);
+            row.add("min_distance", distances >>> 16);
             outAncestor.write(row);
-        }
+        });
     }
 
-    private class PairInfo {
-        public int minDistance;
-        public int maxDistance;
+    private static LongIntHashMap computeBranchClosure(List<Integer> branch, int[] uiIds, int[] parents) {
+        LongIntHashMap pairToDistances = new LongIntHashMap(branch.size() * 8);
+        for (int treeNumber : branch) {
+            long descendant = (long) uiIds[treeNumber] << 32;
+            int distance = 0;
+            for (int ancestor = treeNumber; ancestor != -1; ancestor = parents[ancestor]) {
+                addDistances(pairToDistances, descendant | uiIds[ancestor], (distance << 16) | distance);
+                distance++;
+            }
+        }
+        return pairToDistances;
+    }
 
-        public PairInfo(int minDistance, int maxDistance) {
-            this.minDistance = minDistance;
-            this.maxDistance = maxDistance;
+    /**
+     * Distances are packed into a single int, with the minimum distance in the upper and the maximum distance in the lower 16 bits.
+     */
+    private static void addDistances(LongIntHashMap pairToDistances, long pair, int distances) {
+        int current = pairToDistances.get(pair, -1);
+        if (current == -1)
+            pairToDistances.put(pair, distances);
+        else {
+            int minDistance = Math.min(current >>> 16, distances >>> 16);
+            int maxDistance = Math.max(current & 0xFFFF, distances & 0xFFFF);
+            pairToDistances.put(pair, (minDistance << 16) | maxDistance);
         }
     }
 }
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for a batch of citations, from parsing the first citation up to and including executing the batch. The stage times show where
+ * the time of the batch went.
+ */
+@Name("ohdsi.medline.CitationBatch")
+@Label("Citation Batch")
+@Category({"MEDLINE", "Ingestion"})
+@Description("Parsing and inserting a batch of citations")
+public class CitationBatchEvent extends Event {
+
+    @Label("File")
+    public String fileName;
+
+    @Label("First PMID")
+    public String firstPmid;
+
+    @Label("Last PMID")
+    public String lastPmid;
+
+    @Label("Citations")
+    public int citations;
+
+    @Label("Rows")
+    public long rows;
+
+    @Label("Parse Time")
+    @Description("Time spent turning the XML of the citations into rows")
+    @Timespan
+    public long parseTime;
+
+    @Label("Exists Check Time")
+    @Timespan
+    public long existsCheckTime;
+
+    @Label("Delete Time")
+    @Description("Time spent deleting previous versions of updated citations")
+    @Timespan
+    public long deleteTime;
+
+    @Label("Execute Batch Time")
+    @Timespan
+    public long executeBatchTime;
+}
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.metrics;
+
+/**
+ * Emits a CitationBatchEvent per batch. The stage times of a batch are the growth of the stage totals of the IngestionMetrics during the batch, so they
+ * assume a single thread is loading.
+ */
+public class CitationBatchTracker {
+
+    private final String fileName;
+    private final IngestionMetrics metrics = IngestionMetrics.get();
+    private CitationBatchEvent event;
+    private String firstPmid;
+    private String lastPmid;
+    private int citations;
+    private long startRows;
+    private long startParseNanos;
+    private long startExistsCheckNanos;
+    private long startDeleteNanos;
+    private long startExecuteBatchNanos;
+
+    public CitationBatchTracker(String fileName) {
+        this.fileName = fileName;
+        begin();
+    }
+
+    public void citation(String pmid) {
+        if (citations++ == 0)
+            firstPmid = pmid;
+        lastPmid = pmid;
+    }
+
+    /**
+     * Ends the current batch, and begins the next one
+     */
+    public void commit() {
+        event.end();
+        if (citations != 0 && event.shouldCommit()) {
+            event.fileName = fileName;
+            event.firstPmid = firstPmid;
+            event.lastPmid = lastPmid;
+            event.citations = citations;
+            event.rows = metrics.getRows() - startRows;
+            event.parseTime = metrics.getStageNanos(IngestionMetrics.Stage.PARSE) - startParseNanos;
+            event.existsCheckTime = metrics.getStageNanos(IngestionMetrics.Stage.EXISTS_CHECK) - startExistsCheckNanos;
+            event.deleteTime = metrics.getStageNanos(IngestionMetrics.Stage.DELETE) - startDeleteNanos;
+            event.executeBatchTime = metrics.getStageNanos(IngestionMetrics.Stage.EXECUTE_BATCH) - startExecuteBatchNanos;
+            event.commit();
+        }
+        begin();
+    }
+
+    private void begin() {
+        citations = 0;
+        event = new CitationBatchEvent();
+        if (event.isEnabled()) {
+            startRows = metrics.getRows();
+            startParseNanos = metrics.getStageNanos(IngestionMetrics.Stage.PARSE);
+            startExistsCheckNanos = metrics.getStageNanos(IngestionMetrics.Stage.EXISTS_CHECK);
+            startDeleteNanos = metrics.getStageNanos(IngestionMetrics.Stage.DELETE);
+            startExecuteBatchNanos = metrics.getStageNanos(IngestionMetrics.Stage.EXECUTE_BATCH);
+        }
+        event.begin();
+    }
+}
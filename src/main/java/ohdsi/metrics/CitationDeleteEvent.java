@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for deleting a citation from a set of tables
+ */
+@Name("ohdsi.medline.CitationDelete")
+@Label("Citation Delete")
+@Category({"MEDLINE", "Ingestion"})
+@Description("Deleting the rows of a citation, before inserting an update or for a DeleteCitation")
+public class CitationDeleteEvent extends Event {
+
+    @Label("PMID")
+    public String pmid;
+
+    @Label("PMID Version")
+    public String pmidVersion;
+
+    @Label("Tables")
+    public int tables;
+}
@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for reading a file into a DOM document. The time not spent reading and decompressing is spent building the document.
+ */
+@Name("ohdsi.medline.FileRead")
+@Label("File Read")
+@Category({"MEDLINE", "Ingestion"})
+@Description("Decompressing a MEDLINE file and building its DOM document")
+public class FileReadEvent extends Event {
+
+    @Label("File")
+    public String fileName;
+
+    @Label("Compressed Size")
+    @DataAmount
+    public long compressedBytes;
+
+    @Label("Uncompressed Size")
+    @DataAmount
+    public long uncompressedBytes;
+
+    @Label("Gunzip Time")
+    @Description("Time spent reading and decompressing the file")
+    @Timespan
+    public long gunzipTime;
+}
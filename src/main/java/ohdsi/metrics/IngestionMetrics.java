@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.metrics;
+
+import ohdsi.medlineXmlToDatabase.Abbreviator;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and latency histograms of the ingestion. All counters are LongAdders, so parallel workers can update them without
+ * contention. The metrics can be read over JMX after calling registerMBean(), and in Prometheus text format through the MetricsServer.
+ */
+public class IngestionMetrics implements IngestionMetricsMXBean {
+
+    public enum Stage {
+        PARSE, EXISTS_CHECK, DELETE, EXECUTE_BATCH
+    }
+
+    private static final IngestionMetrics instance = new IngestionMetrics();
+
+    private final LongAdder files = new LongAdder();
+    private final LongAdder citations = new LongAdder();
+    private final LongAdder deletes = new LongAdder();
+    private final LongAdder unchanged = new LongAdder();
+    private final LongAdder truncations = new LongAdder();
+    private final LongAdder droppedFields = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final LongAdder quarantined = new LongAdder();
+    private final Map<String, LongAdder> tableToRows = new ConcurrentHashMap<>();
+    private final Map<Stage, Histogram> stageToHistogram = new EnumMap<>(Stage.class);
+    private boolean registered = false;
+
+    private IngestionMetrics() {
+        for (Stage stage : Stage.values())
+            stageToHistogram.put(stage, new Histogram());
+    }
+
+    public static IngestionMetrics get() {
+        return instance;
+    }
+
+    public synchronized void registerMBean() {
+        if (registered)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("ohdsi.medline:type=IngestionMetrics"));
+            registered = true;
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void countFile() {
+        files.increment();
+    }
+
+    public void countCitation() {
+        citations.increment();
+    }
+
+    public void countRow(String table) {
+        tableToRows.computeIfAbsent(table, t -> new LongAdder()).increment();
+    }
+
+    public void countDelete() {
+        deletes.increment();
+    }
+
+    public void countUnchanged() {
+        unchanged.increment();
+    }
+
+    public void countTruncation() {
+        truncations.increment();
+    }
+
+    public void countDroppedField() {
+        droppedFields.increment();
+    }
+
+    public void countFailedBatch() {
+        failedBatches.increment();
+    }
+
+    public void countQuarantined() {
+        quarantined.increment();
+    }
+
+    /**
+     * Records the time elapsed since the start, as obtained from System.nanoTime()
+     */
+    public void recordSince(Stage stage, long startNanos) {
+        stageToHistogram.get(stage).observe(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the total time spent in the stage in nanoseconds
+     */
+    public long getStageNanos(Stage stage) {
+        return stageToHistogram.get(stage).getSumNanos();
+    }
+
+    /**
+     * @return the total number of rows in all tables
+     */
+    public long getRows() {
+        long rows = 0;
+        for (LongAdder count : tableToRows.values())
+            rows += count.sum();
+        return rows;
+    }
+
+    @Override
+    public long getFiles() {
+        return files.sum();
+    }
+
+    @Override
+    public long getCitations() {
+        return citations.sum();
+    }
+
+    /**
+     * @return the number of rows per table, using the table names in the database
+     */
+    @Override
+    public Map<String, Long> getRowsPerTable() {
+        Map<String, Long> rows = new TreeMap<>();
+        tableToRows.forEach((table, count) -> rows.put(Abbreviator.abbreviate(table), count.sum()));
+        return rows;
+    }
+
+    @Override
+    public long getDeletes() {
+        return deletes.sum();
+    }
+
+    @Override
+    public long getUnchanged() {
+        return unchanged.sum();
+    }
+
+    @Override
+    public long getTruncations() {
+        return truncations.sum();
+    }
+
+    @Override
+    public long getDroppedFields() {
+        return droppedFields.sum();
+    }
+
+    @Override
+    public long getFailedBatches() {
+        return failedBatches.sum();
+    }
+
+    @Override
+    public long getQuarantined() {
+        return quarantined.sum();
+    }
+
+    @Override
+    public Map<String, Long> getStageCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        stageToHistogram.forEach((stage, histogram) -> counts.put(getName(stage), histogram.getCount()));
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getStageMeanSeconds() {
+        Map<String, Double> means = new TreeMap<>();
+        stageToHistogram.forEach((stage, histogram) -> {
+            long count = histogram.getCount();
+            means.put(getName(stage), count == 0 ? 0 : histogram.getSumSeconds() / count);
+        });
+        return means;
+    }
+
+    /**
+     * @return all metrics in the Prometheus text exposition format
+     */
+    public String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        appendCounter(text, "medline_files_total", "Files parsed", files.sum());
+        appendCounter(text, "medline_citations_total", "Citations parsed", citations.sum());
+        appendCounter(text, "medline_deletes_total", "Citations deleted, either by a DeleteCitation or before inserting an update", deletes.sum());
+        appendCounter(text, "medline_unchanged_total", "Revised citations skipped because their content has not changed", unchanged.sum());
+        appendCounter(text, "medline_truncations_total", "Values truncated to the size of their column", truncations.sum());
+        appendCounter(text, "medline_dropped_fields_total", "Values not inserted because their field is not in the database or the value is invalid",
+                droppedFields.sum());
+        appendCounter(text, "medline_failed_batches_total", "Batches that failed and were split to isolate the failing citations", failedBatches.sum());
+        appendCounter(text, "medline_quarantined_total", "Citations that could not be loaded and were written to the quarantine table", quarantined.sum());
+        text.append("# HELP medline_rows_total Rows inserted per table\n# TYPE medline_rows_total counter\n");
+        getRowsPerTable().forEach((table, count) -> text.append("medline_rows_total{table=\"").append(table).append("\"} ").append(count).append('\n'));
+        text.append("# HELP medline_stage_duration_seconds Duration of the ingestion stages\n# TYPE medline_stage_duration_seconds histogram\n");
+        stageToHistogram.forEach((stage, histogram) -> {
+            String name = getName(stage);
+            long[] counts = histogram.getBucketCounts();
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                String bound = i < Histogram.BOUNDS.length ? BigDecimal.valueOf(Histogram.BOUNDS[i]).toPlainString() : "+Inf";
+                text.append("medline_stage_duration_seconds_bucket{stage=\"").append(name).append("\",le=\"").append(bound).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            text.append("medline_stage_duration_seconds_sum{stage=\"").append(name).append("\"} ").append(histogram.getSumSeconds()).append('\n');
+            text.append("medline_stage_duration_seconds_count{stage=\"").append(name).append("\"} ").append(cumulative).append('\n');
+        });
+        return text.toString();
+    }
+
+    private static void appendCounter(StringBuilder text, String name, String help, long value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" counter\n");
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String getName(Stage stage) {
+        return stage.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the ingestion metrics, registered as ohdsi.medline:type=IngestionMetrics
+ */
+public interface IngestionMetricsMXBean {
+
+    long getFiles();
+
+    long getCitations();
+
+    Map<String, Long> getRowsPerTable();
+
+    long getDeletes();
+
+    long getUnchanged();
+
+    long getTruncations();
+
+    long getDroppedFields();
+
+    long getFailedBatches();
+
+    long getQuarantined();
+
+    Map<String, Long> getStageCounts();
+
+    Map<String, Double> getStageMeanSeconds();
+}
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.metrics;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically reports the progress of a load: the fraction of the compressed bytes done, the citation rate and an estimated time to completion.
+ * Progress is measured in compressed bytes, since the sizes of all files are known up front. A file counts as done in proportion to the citations
+ * committed from it, so the progress does not jump when a file has been read into memory but not yet inserted.
+ * <p>
+ * Rates are smoothed with an exponentially weighted moving average over the reporting intervals, so the ETA follows slowdowns of the database
+ * without jumping around. Reports are logged, and optionally written to a JSON status file, which is replaced atomically.
+ */
+public class ProgressReporter implements AutoCloseable {
+
+    private static final Logger log = LogManager.getLogger(ProgressReporter.class.getName());
+    private static final double SMOOTHING = 0.3;
+
+    private final long totalBytes;
+    private final int totalFiles;
+    private final Path statusFile;
+    private final long startNanos = System.nanoTime();
+    private final ScheduledExecutorService scheduler;
+
+    // Updated by the loading thread:
+    private volatile long completedBytes = 0;
+    private volatile int completedFiles = 0;
+    private volatile long citations = 0;
+    private volatile String currentFile = "";
+    private volatile long currentFileBytes = 0;
+    private volatile TimedInputStream currentStream;
+    private volatile int currentFileCitations = 0;
+    private volatile int currentFileCommitted = 0;
+
+    // Only used by the reporting thread:
+    private long lastNanos = startNanos;
+    private double lastBytes = 0;
+    private long lastCitations = 0;
+    private double bytesPerSecond = Double.NaN;
+    private double citationsPerSecond = Double.NaN;
+
+    /**
+     * @param statusFile      the JSON status file, or null to only log
+     * @param intervalSeconds the time between reports
+     */
+    public ProgressReporter(List<File> files, Path statusFile, int intervalSeconds) {
+        long bytes = 0;
+        for (File file : files)
+            bytes += file.length();
+        totalBytes = bytes;
+        totalFiles = files.size();
+        this.statusFile = statusFile;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "progress-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::report, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Starts a file
+     *
+     * @return the compressed stream of the file, wrapped to count the bytes read from it
+     */
+    public InputStream startFile(File file, InputStream compressedStream) {
+        currentFile = file.getName();
+        currentFileBytes = file.length();
+        currentFileCitations = 0;
+        currentFileCommitted = 0;
+        currentStream = new TimedInputStream(compressedStream);
+        return currentStream;
+    }
+
+    /**
+     * Sets the number of citations in the current file, once it has been read
+     */
+    public void setFileCitations(int fileCitations) {
+        currentFileCitations = fileCitations;
+    }
+
+    /**
+     * Sets the number of citations of the current file that have been committed
+     */
+    public void setFileCommitted(int committed) {
+        citations += committed - currentFileCommitted;
+        currentFileCommitted = committed;
+    }
+
+    public void finishFile() {
+        completedBytes += currentFileBytes;
+        completedFiles++;
+        currentFile = "";
+        currentFileBytes = 0;
+        currentStream = null;
+        currentFileCitations = 0;
+        currentFileCommitted = 0;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        report();
+    }
+
+    private synchronized void report() {
+        long now = System.nanoTime();
+        double bytesDone = completedBytes + (currentFileCitations == 0 ? 0 : (double) currentFileBytes * currentFileCommitted / currentFileCitations);
+        long citationsDone = citations;
+        double seconds = (now - lastNanos) / 1e9;
+        if (seconds > 0) {
+            bytesPerSecond = smooth(bytesPerSecond, (bytesDone - lastBytes) / seconds);
+            citationsPerSecond = smooth(citationsPerSecond, (citationsDone - lastCitations) / seconds);
+        }
+        lastNanos = now;
+        lastBytes = bytesDone;
+        lastCitations = citationsDone;
+
+        double elapsedSeconds = (now - startNanos) / 1e9;
+        double fraction = totalBytes == 0 ? 1 : bytesDone / totalBytes;
+        double etaSeconds = bytesPerSecond > 0 ? (totalBytes - bytesDone) / bytesPerSecond : Double.NaN;
+        TimedInputStream stream = currentStream;
+        log.info("Progress: {}% ({} of {} files), {} citations, {} citations per second ({} on average), ETA {}", format(fraction * 100),
+                completedFiles, totalFiles, citationsDone, format(citationsPerSecond), format(citationsDone / elapsedSeconds), formatEta(etaSeconds));
+        if (statusFile != null)
+            writeStatus(fraction, bytesDone, citationsDone, elapsedSeconds, etaSeconds, stream == null ? 0 : stream.getBytes());
+    }
+
+    private static double smooth(double average, double value) {
+        return Double.isNaN(average) ? value : SMOOTHING * value + (1 - SMOOTHING) * average;
+    }
+
+    private void writeStatus(double fraction, double bytesDone, long citationsDone, double elapsedSeconds, double etaSeconds, long currentFileBytesRead) {
+        String json = "{\n" +
+                "  \"updated\": \"" + Instant.now() + "\",\n" +
+                "  \"fraction_done\": " + String.format(Locale.ROOT, "%.4f", fraction) + ",\n" +
+                "  \"files_done\": " + completedFiles + ",\n" +
+                "  \"files_total\": " + totalFiles + ",\n" +
+                "  \"bytes_done\": " + (long) bytesDone + ",\n" +
+                "  \"bytes_total\": " + totalBytes + ",\n" +
+                "  \"current_file\": \"" + currentFile + "\",\n" +
+                "  \"current_file_bytes_read\": " + currentFileBytesRead + ",\n" +
+                "  \"citations\": " + citationsDone + ",\n" +
+                "  \"citations_per_second\": " + format(citationsPerSecond) + ",\n" +
+                "  \"average_citations_per_second\": " + format(citationsDone / elapsedSeconds) + ",\n" +
+                "  \"bytes_per_second\": " + format(bytesPerSecond) + ",\n" +
+                "  \"elapsed_seconds\": " + format(elapsedSeconds) + ",\n" +
+                "  \"eta_seconds\": " + (Double.isNaN(etaSeconds) ? "null" : format(etaSeconds)) + "\n" +
+                "}\n";
+        Path tempFile = statusFile.resolveSibling(statusFile.getFileName() + ".tmp");
+        try {
+            Files.writeString(tempFile, json, StandardCharsets.UTF_8);
+            Files.move(tempFile, statusFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not write progress to {}: {}", statusFile, e.getMessage());
+        }
+    }
+
+    private static String format(double value) {
+        return Double.isNaN(value) ? "0" : String.format(Locale.ROOT, "%.1f", value);
+    }
+
+    private static String formatEta(double seconds) {
+        if (Double.isNaN(seconds))
+            return "unknown";
+        Duration duration = Duration.ofSeconds((long) seconds);
+        return String.format("%dh %02dm %02ds", duration.toHours(), duration.toMinutesPart(), duration.toSecondsPart());
+    }
+}
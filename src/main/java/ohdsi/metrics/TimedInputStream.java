@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Measures the time spent in and the number of bytes read from the wrapped stream, for example to separate decompression from parsing
+ */
+public class TimedInputStream extends FilterInputStream {
+
+    private long nanos = 0;
+    private long bytes = 0;
+
+    public TimedInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int result = super.read();
+        nanos += System.nanoTime() - start;
+        if (result != -1)
+            bytes++;
+        return result;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        long start = System.nanoTime();
+        int result = super.read(buffer, offset, length);
+        nanos += System.nanoTime() - start;
+        if (result > 0)
+            bytes += result;
+        return result;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+}
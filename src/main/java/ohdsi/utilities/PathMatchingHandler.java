@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.utilities;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Base class for SAX handlers that are only interested in a few element paths. Subclasses register callbacks for dotted paths (e.g.
+ * "DescriptorRecordSet.DescriptorRecord.DescriptorUI"), which are compiled into a tree of element names. While parsing, the handler keeps the matching
+ * tree node for each element depth, so matching an element is a single lookup in its parent node. Element names are matched case-insensitively.
+ * <p>
+ * Text is buffered until the end of the element, since SAX may split the text of an element over several characters() calls. Text callbacks should
+ * therefore only be registered for elements that do not contain other elements with text callbacks.
+ */
+public abstract class PathMatchingHandler extends DefaultHandler {
+
+    private final PathNode root = new PathNode();
+    private final StringBuilder text = new StringBuilder();
+    private PathNode[] stack = new PathNode[16];
+    private int depth = 0;
+
+    /**
+     * Registers a callback for the start of the element at the given path
+     */
+    protected void onStart(String path, Consumer<Attributes> handler) {
+        compile(path).startHandlers.add(handler);
+    }
+
+    /**
+     * Registers a callback for the end of the element at the given path
+     */
+    protected void onEnd(String path, Runnable handler) {
+        compile(path).endHandlers.add(handler);
+    }
+
+    /**
+     * Registers a callback receiving the full text of the element at the given path
+     */
+    protected void onText(String path, Consumer<String> handler) {
+        compile(path).textHandlers.add(handler);
+    }
+
+    public void parse(InputStream inputStream) throws SAXException, ParserConfigurationException, IOException {
+        SAXParserFactory.newInstance().newSAXParser().parse(inputStream, this);
+    }
+
+    private PathNode compile(String path) {
+        PathNode node = root;
+        for (String name : path.split("\\."))
+            node = node.children.computeIfAbsent(name, n -> new PathNode());
+        return node;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String name, Attributes attributes) {
+        PathNode parent = depth == 0 ? root : stack[depth - 1];
+        PathNode node = parent == null ? null : parent.children.get(name);
+        if (depth == stack.length)
+            stack = Arrays.copyOf(stack, depth * 2);
+        stack[depth++] = node;
+        if (node != null) {
+            if (!node.textHandlers.isEmpty())
+                text.setLength(0);
+            for (Consumer<Attributes> handler : node.startHandlers)
+                handler.accept(attributes);
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        PathNode node = depth == 0 ? null : stack[depth - 1];
+        if (node != null && !node.textHandlers.isEmpty())
+            text.append(ch, start, length);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String name) {
+        PathNode node = stack[--depth];
+        stack[depth] = null;
+        if (node != null) {
+            if (!node.textHandlers.isEmpty()) {
+                String value = text.toString();
+                for (Consumer<String> handler : node.textHandlers)
+                    handler.accept(value);
+            }
+            for (Runnable handler : node.endHandlers)
+                handler.run();
+        }
+    }
+
+    private static class PathNode {
+        private final Map<String, PathNode> children = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private final List<Consumer<Attributes>> startHandlers = new ArrayList<>();
+        private final List<Runnable> endHandlers = new ArrayList<>();
+        private final List<Consumer<String>> textHandlers = new ArrayList<>();
+    }
+}
@@ -39,4 +39,13 @@ public class StringUtilities {
         return true;
     }
 
+    public static boolean isLong(String string) {
+        try {
+            Long.parseLong(string);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return true;
+    }
+
 }
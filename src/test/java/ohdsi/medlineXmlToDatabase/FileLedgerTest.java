@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.medlineXmlToDatabase;
+
+import ohdsi.databases.ConnectionWrapper;
+import ohdsi.databases.DbType;
+import ohdsi.utilities.files.Row;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileLedgerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ConnectionWrapper connectionWrapper;
+
+    @BeforeEach
+    void createTables() {
+        connectionWrapper = new ConnectionWrapper(tempDir.resolve("db").toString(), "sa", "", DbType.H2);
+        FileLedger.createTables(connectionWrapper, "public");
+    }
+
+    @AfterEach
+    void close() {
+        connectionWrapper.close();
+    }
+
+    @Test
+    void skipsRecordedFiles() throws IOException {
+        File file = writeFile("pubmed24n0001.xml.gz", "first version");
+        File other = writeFile("pubmed24n0002.xml.gz", "other file");
+        new FileLedger(connectionWrapper, false).record(file, sha256(file), 10, 2, 1234);
+
+        FileLedger ledger = new FileLedger(connectionWrapper, false);
+        assertTrue(ledger.isLoaded(file));
+        assertFalse(ledger.isChanged(file));
+        assertFalse(ledger.isLoaded(other));
+        assertFalse(ledger.isChanged(other));
+        assertFalse(ledger.isUnsyncedWithListeners(file));
+        assertEquals(List.of("pubmed24n0001.xml.gz|13|" + sha256(file) + "|10|2|1234|1"), getRows(
+                "SELECT file_name, file_size, checksum, citations, deletions, duration_ms, listeners_synced FROM " + FileLedger.TABLE_NAME));
+    }
+
+    @Test
+    void reloadsFileWithSameSizeButDifferentContent() throws IOException {
+        File file = writeFile("pubmed24n0001.xml.gz", "first version");
+        new FileLedger(connectionWrapper, false).record(file, sha256(file), 10, 0, 0);
+        writeFile("pubmed24n0001.xml.gz", "other version");
+
+        FileLedger ledger = new FileLedger(connectionWrapper, false);
+        assertFalse(ledger.isLoaded(file));
+        assertTrue(ledger.isChanged(file));
+
+        // Recording the new version replaces the entry of the old one:
+        ledger.record(file, sha256(file), 11, 0, 0);
+        assertTrue(new FileLedger(connectionWrapper, false).isLoaded(file));
+        assertEquals(List.of("pubmed24n0001.xml.gz|11"), getRows("SELECT file_name, citations FROM " + FileLedger.TABLE_NAME));
+    }
+
+    @Test
+    void resumesFromCommittedCheckpoint() throws IOException {
+        File file = writeFile("pubmed24n0001.xml.gz", "first version");
+        FileLedger ledger = new FileLedger(connectionWrapper, false);
+        checkpoint(ledger, file, 500);
+        checkpoint(ledger, file, 1000);
+
+        // A checkpoint in a batch that is rolled back is not kept:
+        connectionWrapper.setBatchMode(true);
+        ledger.checkpoint(file, 1500);
+        connectionWrapper.abortBatch();
+
+        ledger = new FileLedger(connectionWrapper, false);
+        assertEquals(1000, ledger.getCommittedCitations(file));
+        assertFalse(ledger.isLoaded(file));
+
+        // The checkpoint of a file that was replaced since is ignored:
+        File changed = writeFile("pubmed24n0001.xml.gz", "longer version");
+        assertEquals(0, new FileLedger(connectionWrapper, false).getCommittedCitations(changed));
+        writeFile("pubmed24n0001.xml.gz", "first version");
+
+        // Recording the file removes its checkpoint:
+        ledger.record(file, sha256(file), 1200, 0, 0);
+        assertEquals(0, ledger.getCommittedCitations(file));
+        assertEquals(0, new FileLedger(connectionWrapper, false).getCommittedCitations(file));
+        assertEquals(List.of(), getRows("SELECT file_name FROM " + FileLedger.CHECKPOINT_TABLE_NAME));
+    }
+
+    @Test
+    void tracksFilesNotYetSeenByListeners() throws IOException {
+        File file1 = writeFile("pubmed24n0001.xml.gz", "first file");
+        File file2 = writeFile("pubmed24n0002.xml.gz", "second file");
+        FileLedger ledger = new FileLedger(connectionWrapper, true);
+        ledger.record(file1, sha256(file1), 10, 0, 0);
+        assertTrue(ledger.isUnsyncedWithListeners(file1));
+
+        // The run fails before the listeners are closed:
+        ledger = new FileLedger(connectionWrapper, true);
+        assertTrue(ledger.isLoaded(file1));
+        assertTrue(ledger.isUnsyncedWithListeners(file1));
+        ledger.record(file2, sha256(file2), 10, 0, 0);
+        ledger.markListenersSynced();
+        assertFalse(ledger.isUnsyncedWithListeners(file1));
+
+        ledger = new FileLedger(connectionWrapper, true);
+        assertFalse(ledger.isUnsyncedWithListeners(file1));
+        assertFalse(ledger.isUnsyncedWithListeners(file2));
+        assertEquals(List.of("1", "1"), getRows("SELECT listeners_synced FROM " + FileLedger.TABLE_NAME));
+    }
+
+    private void checkpoint(FileLedger ledger, File file, int committedCitations) {
+        connectionWrapper.setBatchMode(true);
+        ledger.checkpoint(file, committedCitations);
+        connectionWrapper.setBatchMode(false);
+    }
+
+    private File writeFile(String name, String content) throws IOException {
+        return Files.writeString(tempDir.resolve(name), content, StandardCharsets.UTF_8).toFile();
+    }
+
+    private List<String> getRows(String sql) {
+        List<String> rows = new ArrayList<>();
+        for (Row row : connectionWrapper.query(sql)) {
+            List<String> values = new ArrayList<>();
+            for (String field : row.getFieldNames())
+                values.add(row.get(field));
+            rows.add(String.join("|", values));
+        }
+        return rows;
+    }
+
+    private static String sha256(File file) throws IOException {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file.toPath())));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.medlineXmlToDatabase;
+
+import ohdsi.corpusGenerator.CorpusGeneratorMain;
+import ohdsi.databases.ConnectionWrapper;
+import ohdsi.databases.DbType;
+import ohdsi.meshXmlToDatabase.MeshParserMain;
+import ohdsi.metrics.IngestionMetrics;
+import ohdsi.utilities.files.Row;
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.Node;
+import org.dom4j.io.SAXReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the analyser, the parser and the MeSH parser on a generated corpus against an embedded H2 database, and checks the end state of the database.
+ */
+class IngestionSmokeTest {
+
+    private static final String SCHEMA = "medline";
+    private static final int DESCRIPTORS = 200;
+    private static final int SUPPLEMENTALS = 50;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void loadsGeneratedCorpus() throws IOException {
+        File corpus = tempDir.resolve("corpus").toFile();
+        CorpusGeneratorMain.generate(corpus, 7, 600, 250, 2, 150, 0.3, 0.05, DESCRIPTORS, SUPPLEMENTALS);
+        File baselineFolder = new File(corpus, "baseline");
+        File updatesFolder = new File(corpus, "updates");
+        String server = tempDir.resolve("db").toString();
+
+        MedlineAnalyserMain analyser = new MedlineAnalyserMain();
+        analyser.analyseFolder(baselineFolder.getPath());
+        analyser.createDatabase(server, SCHEMA, "sa", "", DbType.H2.name(), "true", "false", "false", "", "true");
+
+        IngestionMetrics metrics = IngestionMetrics.get();
+        long filesBefore = metrics.getFiles();
+        long citationsBefore = metrics.getCitations() + metrics.getUnchanged();
+        long quarantinedBefore = metrics.getQuarantined();
+        try (ConnectionWrapper connectionWrapper = new ConnectionWrapper(server, "sa", "", DbType.H2)) {
+            connectionWrapper.use(SCHEMA);
+            new MedlineParserMain().parseFolder(baselineFolder.getPath(), connectionWrapper, SCHEMA, "BASELINE", false, "", "", true);
+            new MedlineParserMain().parseFolder(updatesFolder.getPath(), connectionWrapper, SCHEMA, "", false, "", "", true);
+
+            List<File> files = new ArrayList<>(getFiles(baselineFolder));
+            files.addAll(getFiles(updatesFolder));
+            Set<String> pmids = new LinkedHashSet<>();
+            Set<String> loadedPmids = new LinkedHashSet<>();
+            List<String> expectedLedger = new ArrayList<>();
+            int citations = 0;
+            for (File file : files) {
+                Document document = read(file);
+                List<String> filePmids = getValues(document, "/PubmedArticleSet/PubmedArticle/MedlineCitation/PMID");
+                List<String> deletedPmids = getValues(document, "/PubmedArticleSet/DeleteCitation/PMID");
+                pmids.addAll(filePmids);
+                loadedPmids.addAll(filePmids);
+                deletedPmids.forEach(pmids::remove);
+                citations += filePmids.size();
+                expectedLedger.add(file.getName() + "|" + file.length() + "|" + filePmids.size() + "|" + deletedPmids.size() + "|1");
+            }
+            String count = Integer.toString(pmids.size());
+            assertEquals(count, queryValue(connectionWrapper, "SELECT COUNT(*) FROM medcit"));
+            assertEquals(count, queryValue(connectionWrapper, "SELECT COUNT(DISTINCT pmid) FROM medcit"));
+            // Deleted citations keep their date:
+            assertEquals(Integer.toString(loadedPmids.size()), queryValue(connectionWrapper, "SELECT COUNT(*) FROM " + PmidToDate.TABLE_NAME));
+            assertEquals(count, queryValue(connectionWrapper, "SELECT COUNT(*) FROM " + CitationHashes.TABLE_NAME));
+            assertEquals(count, queryValue(connectionWrapper, "SELECT COUNT(*) FROM " + CitationSummary.TABLE_NAME));
+            assertEquals(count, queryValue(connectionWrapper, "SELECT COUNT(*) FROM medcit INNER JOIN " + CitationSummary.TABLE_NAME
+                    + " s ON medcit.pmid = s.pmid AND medcit.pmid_version = s.pmid_version"));
+
+            assertEquals(expectedLedger, getRows(connectionWrapper, "SELECT file_name, file_size, citations, deletions, listeners_synced FROM "
+                    + FileLedger.TABLE_NAME + " ORDER BY file_name"));
+            assertEquals("0", queryValue(connectionWrapper, "SELECT COUNT(*) FROM " + FileLedger.CHECKPOINT_TABLE_NAME));
+            assertEquals("0", queryValue(connectionWrapper, "SELECT COUNT(*) FROM " + Quarantine.TABLE_NAME));
+
+            assertEquals(files.size(), metrics.getFiles() - filesBefore);
+            assertEquals(citations, metrics.getCitations() + metrics.getUnchanged() - citationsBefore);
+            assertEquals(0, metrics.getQuarantined() - quarantinedBefore);
+
+            // All files are in the ledger, so running again loads nothing:
+            long filesAfter = metrics.getFiles();
+            new MedlineParserMain().parseFolder(baselineFolder.getPath(), connectionWrapper, SCHEMA, "BASELINE", false, "", "", true);
+            new MedlineParserMain().parseFolder(updatesFolder.getPath(), connectionWrapper, SCHEMA, "", false, "", "", true);
+            assertEquals(filesAfter, metrics.getFiles());
+            assertEquals(count, queryValue(connectionWrapper, "SELECT COUNT(*) FROM medcit"));
+
+            // MeSH, a full load followed by an incremental update with the same files:
+            Path iniFile = tempDir.resolve("mesh.ini");
+            for (String incremental : new String[]{"false", "true"}) {
+                Files.writeString(iniFile, String.join("\n", "DATA_SOURCE_TYPE = H2", "SERVER = " + server, "SCHEMA = " + SCHEMA, "USER = sa",
+                        "PASSWORD = ", "MESH_XML_FOLDER = " + new File(corpus, "mesh").getPath(), "MESH_INCREMENTAL = " + incremental), StandardCharsets.UTF_8);
+                MeshParserMain.main(new String[]{iniFile.toString()});
+                assertEquals(Integer.toString(DESCRIPTORS + SUPPLEMENTALS), queryValue(connectionWrapper, "SELECT COUNT(*) FROM mesh_term"));
+                assertEquals(Integer.toString(SUPPLEMENTALS), queryValue(connectionWrapper, "SELECT COUNT(*) FROM mesh_term WHERE supplement = 1"));
+                assertEquals("0", queryValue(connectionWrapper, "SELECT COUNT(*) FROM mesh_term WHERE name IS NULL"));
+                assertEquals(Integer.toString(DESCRIPTORS), queryValue(connectionWrapper, "SELECT COUNT(*) FROM mesh_ancestor WHERE min_distance = 0"));
+                assertTrue(Integer.parseInt(queryValue(connectionWrapper, "SELECT COUNT(*) FROM mesh_ancestor")) > DESCRIPTORS);
+                assertTrue(Integer.parseInt(queryValue(connectionWrapper, "SELECT COUNT(*) FROM mesh_relationship")) > 0);
+            }
+        }
+    }
+
+    private static List<File> getFiles(File folder) {
+        return Arrays.stream(folder.listFiles())
+                .filter(file -> file.getName().endsWith("xml.gz"))
+                .sorted(Comparator.comparing(File::getName))
+                .toList();
+    }
+
+    private static Document read(File file) throws IOException {
+        try (InputStream inputStream = new GZIPInputStream(new FileInputStream(file))) {
+            return new SAXReader().read(inputStream);
+        } catch (DocumentException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static List<String> getValues(Document document, String xpath) {
+        return document.selectNodes(xpath).stream().map(Node::getText).toList();
+    }
+
+    private static String queryValue(ConnectionWrapper connectionWrapper, String sql) {
+        return connectionWrapper.query(sql).iterator().next().get(0);
+    }
+
+    private static List<String> getRows(ConnectionWrapper connectionWrapper, String sql) {
+        List<String> rows = new ArrayList<>();
+        for (Row row : connectionWrapper.query(sql)) {
+            List<String> values = new ArrayList<>();
+            for (String field : row.getFieldNames())
+                values.add(row.get(field));
+            rows.add(String.join("|", values));
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.medlineXmlToDatabase;
+
+import ohdsi.corpusGenerator.CorpusGeneratorMain;
+import ohdsi.databases.ConnectionWrapper;
+import ohdsi.databases.DbType;
+import ohdsi.utilities.files.Row;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MedlineParserMainTest {
+
+    private static final String SCHEMA = "medline";
+    private static final int CITATIONS = 250;
+
+    @TempDir
+    Path tempDir;
+
+    private File baselineFolder;
+    private ConnectionWrapper connectionWrapper;
+
+    @BeforeEach
+    void createDatabase() {
+        File corpus = tempDir.resolve("corpus").toFile();
+        CorpusGeneratorMain.generate(corpus, 1, CITATIONS, CITATIONS, 0, 0, 0, 0, 100, 10);
+        baselineFolder = new File(corpus, "baseline");
+        String server = tempDir.resolve("db").toString();
+        MedlineAnalyserMain analyser = new MedlineAnalyserMain();
+        analyser.analyseFolder(baselineFolder.getPath());
+        analyser.createDatabase(server, SCHEMA, "sa", "", DbType.H2.name(), "true", "false", "false", "", "false");
+        connectionWrapper = new ConnectionWrapper(server, "sa", "", DbType.H2);
+        connectionWrapper.use(SCHEMA);
+    }
+
+    @AfterEach
+    void close() {
+        connectionWrapper.close();
+    }
+
+    @Test
+    void resumesAfterLastCommittedCitation() {
+        // Batches end after citation 1, 101, 201, etc., so a crash in the batch of PMID 151 leaves the first 101 citations committed:
+        PmidCollector firstRun = new PmidCollector();
+        assertThrows(RuntimeException.class, () -> parse(firstRun, new FailingListener("151")));
+        assertEquals(range(1, 101), firstRun.pmids);
+        assertEquals("101", queryValue("SELECT COUNT(*) FROM medcit"));
+        assertEquals("101", queryValue("SELECT committed_citations FROM " + FileLedger.CHECKPOINT_TABLE_NAME));
+        assertEquals("0", queryValue("SELECT COUNT(*) FROM " + FileLedger.TABLE_NAME));
+        // A failure that is not caused by the data is not quarantined:
+        assertEquals("0", queryValue("SELECT COUNT(*) FROM " + Quarantine.TABLE_NAME));
+
+        PmidCollector secondRun = new PmidCollector();
+        parse(secondRun);
+        assertEquals(range(102, CITATIONS), secondRun.pmids);
+        assertEquals(Integer.toString(CITATIONS), queryValue("SELECT COUNT(DISTINCT pmid) FROM medcit"));
+        assertEquals(Integer.toString(CITATIONS), queryValue("SELECT COUNT(*) FROM medcit"));
+        assertEquals("0", queryValue("SELECT COUNT(*) FROM " + FileLedger.CHECKPOINT_TABLE_NAME));
+        assertEquals(Integer.toString(CITATIONS), queryValue("SELECT citations FROM " + FileLedger.TABLE_NAME));
+
+        // The file is recorded in the ledger, so a third run skips it:
+        PmidCollector thirdRun = new PmidCollector();
+        parse(thirdRun);
+        assertEquals(List.of(), thirdRun.pmids);
+    }
+
+    @Test
+    void replaysCommittedCitationsToListenersKeepingTheirOwnState() {
+        CommittedPmidCollector firstRun = new CommittedPmidCollector();
+        assertThrows(RuntimeException.class, () -> parse(firstRun, new FailingListener("151")));
+        assertEquals(range(1, 101), firstRun.pmids);
+
+        // The first run did not get to close its listeners, so the committed citations are passed to the listeners again, but not inserted again:
+        CommittedPmidCollector secondRun = new CommittedPmidCollector();
+        parse(secondRun);
+        assertEquals(range(1, CITATIONS), secondRun.pmids);
+        assertEquals(Integer.toString(CITATIONS), queryValue("SELECT COUNT(*) FROM medcit"));
+        assertEquals("1", queryValue("SELECT listeners_synced FROM " + FileLedger.TABLE_NAME));
+    }
+
+    @Test
+    void quarantinesCitationsThatViolateConstraints() {
+        connectionWrapper.execute("ALTER TABLE medcit ADD CONSTRAINT no_bad_pmids CHECK (pmid NOT IN (17, 150, 151))");
+        PmidCollector collector = new PmidCollector();
+        parse(collector);
+
+        List<String> expected = new ArrayList<>(range(1, CITATIONS));
+        expected.removeAll(List.of("17", "150", "151"));
+        assertEquals(expected, collector.pmids);
+        assertEquals(Integer.toString(CITATIONS - 3), queryValue("SELECT COUNT(*) FROM medcit"));
+        assertEquals(Integer.toString(CITATIONS - 3), queryValue("SELECT COUNT(*) FROM " + PmidToDate.TABLE_NAME));
+        assertEquals("0", queryValue("SELECT COUNT(*) FROM " + FileLedger.CHECKPOINT_TABLE_NAME));
+        assertEquals(Integer.toString(CITATIONS), queryValue("SELECT citations FROM " + FileLedger.TABLE_NAME));
+
+        List<String> quarantined = new ArrayList<>();
+        for (Row row : connectionWrapper.query("SELECT pmid, pmid_version, file_name, table_name, error, xml FROM " + Quarantine.TABLE_NAME
+                + " ORDER BY pmid")) {
+            quarantined.add(String.join("|", row.get("pmid"), row.get("pmid_version"), row.get("file_name"), row.get("table_name")));
+            assertTrue(row.get("error").contains("no_bad_pmids"), row.get("error"));
+            assertTrue(row.get("xml").startsWith("<PubmedArticle>"), row.get("xml"));
+            assertTrue(row.get("xml").contains(">" + row.get("pmid") + "</PMID>"), row.get("xml"));
+        }
+        assertEquals(List.of("17|1|pubmed00n0001.xml.gz|medcit", "150|1|pubmed00n0001.xml.gz|medcit", "151|1|pubmed00n0001.xml.gz|medcit"),
+                quarantined);
+    }
+
+    private void parse(CitationListener... listeners) {
+        MedlineParserMain parser = new MedlineParserMain();
+        for (CitationListener listener : listeners)
+            parser.addListener(listener);
+        parser.parseFolder(baselineFolder.getPath(), connectionWrapper, SCHEMA, "BASELINE", false, "", "", false);
+    }
+
+    private String queryValue(String sql) {
+        return connectionWrapper.query(sql).iterator().next().get(0);
+    }
+
+    private static List<String> range(int first, int last) {
+        return IntStream.rangeClosed(first, last).mapToObj(Integer::toString).toList();
+    }
+
+    /**
+     * Collects the PMIDs of committed citations
+     */
+    private static class PmidCollector implements CitationListener {
+        private final List<String> pending = new ArrayList<>();
+        private final List<String> pmids = new ArrayList<>();
+
+        @Override
+        public void row(String table, Map<String, String> field2Value) {
+            if (table.equals(MedlineCitationParser.MEDLINE_CITATION))
+                pending.add(field2Value.get("PMID"));
+        }
+
+        @Override
+        public void deleteCitation(String pmid, String pmidVersion) {
+        }
+
+        @Override
+        public void commit() {
+            pmids.addAll(pending);
+            pending.clear();
+        }
+
+        @Override
+        public void rollback() {
+            pending.clear();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class CommittedPmidCollector extends CommittedCitationListener {
+        private final List<String> pmids = new ArrayList<>();
+
+        @Override
+        protected void committedRow(String table, Map<String, String> field2Value) {
+            if (table.equals(MedlineCitationParser.MEDLINE_CITATION))
+                pmids.add(field2Value.get("PMID"));
+        }
+
+        @Override
+        protected void committedDeleteCitation(String pmid, String pmidVersion) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Simulates a crash while loading the citation with the given PMID
+     */
+    private static class FailingListener extends PmidCollector {
+        private final String failingPmid;
+
+        private FailingListener(String failingPmid) {
+            this.failingPmid = failingPmid;
+        }
+
+        @Override
+        public void row(String table, Map<String, String> field2Value) {
+            if (failingPmid.equals(field2Value.get("PMID")))
+                throw new RuntimeException("Simulated crash at PMID " + failingPmid);
+        }
+    }
+}
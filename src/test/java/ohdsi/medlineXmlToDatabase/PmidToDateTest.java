@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.medlineXmlToDatabase;
+
+import org.junit.jupiter.api.Test;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PmidToDateTest {
+
+    @Test
+    void usesArticleDateFirst() {
+        assertEquals("2020-05-17", PmidToDate.deriveDate("2020", "05", "17", "2019", "Feb", "3", "1998 Dec"));
+    }
+
+    @Test
+    void fallsBackToPubDate() {
+        assertEquals("2019-02-03", PmidToDate.deriveDate(null, null, null, "2019", "Feb", "3", null));
+        assertEquals("2019-02-01", PmidToDate.deriveDate(null, null, null, "2019", "Feb", null, null));
+        assertEquals("2019-01-01", PmidToDate.deriveDate(null, null, null, "2019", null, null, null));
+    }
+
+    @Test
+    void fallsBackToMedlineDate() {
+        assertEquals("1998-01-01", PmidToDate.deriveDate(null, null, null, null, null, null, "1998 Dec-1999 Jan"));
+        assertEquals("2001-06-01", PmidToDate.deriveDate(null, null, null, null, null, null, "Summer 2001 Jun-Aug"));
+        assertEquals("2001-01-01", PmidToDate.deriveDate(null, null, null, null, null, null, "2001 Spring"));
+    }
+
+    @Test
+    void returnsNoDateWhenNothingCanBeDerived() {
+        assertEquals(PmidToDate.NO_DATE, PmidToDate.deriveEpochDay(null, null, null, null, null, null, null));
+        assertEquals(PmidToDate.NO_DATE, PmidToDate.deriveEpochDay(null, null, null, null, null, null, "Spring"));
+        assertEquals(PmidToDate.NO_DATE, PmidToDate.deriveEpochDay("20x0", "1", "1", null, null, null, null));
+        assertEquals(PmidToDate.NO_DATE, PmidToDate.deriveEpochDay("2000", "1", "-1", null, null, null, null));
+        assertNull(PmidToDate.deriveDate(null, null, null, null, null, null, null));
+    }
+
+    @Test
+    void rollsOverOutOfRangeMonthsAndDays() {
+        assertEquals("2018-12-15", PmidToDate.deriveDate(null, null, null, "2019", "0", "15", null));
+        assertEquals("2018-12-01", PmidToDate.deriveDate(null, null, null, "2019", "Spring", null, null));
+        assertEquals("2020-01-01", PmidToDate.deriveDate(null, null, null, "2019", "13", null, null));
+        assertEquals("2021-03-03", PmidToDate.deriveDate("2021", "2", "31", null, null, null, null));
+        assertEquals("2021-02-28", PmidToDate.deriveDate("2021", "3", "0", null, null, null, null));
+        assertEquals("1900-03-01", PmidToDate.deriveDate("1900", "2", "29", null, null, null, null));
+        assertEquals("2000-02-29", PmidToDate.deriveDate("2000", "2", "29", null, null, null, null));
+    }
+
+    @Test
+    void epochDayMatchesLocalDate() {
+        assertEquals(0, PmidToDate.deriveEpochDay("1970", "1", "1", null, null, null, null));
+        for (int year = 1600; year <= 2400; year += 7)
+            for (int month = 1; month <= 12; month++)
+                assertEquals(LocalDate.of(year, month, 1).toEpochDay(),
+                        PmidToDate.deriveEpochDay(Integer.toString(year), Integer.toString(month), "1", null, null, null, null));
+    }
+
+    /**
+     * The dates used to be formatted as strings and parsed back with a lenient SimpleDateFormat, which rolls over out-of-range months and days. The
+     * derivation must give the same dates.
+     */
+    @Test
+    void matchesLenientSimpleDateFormat() throws ParseException {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.ENGLISH);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        for (int year : new int[]{1899, 1900, 1999, 2000, 2023, 2024})
+            for (int month = 0; month <= 13; month++)
+                for (int day = 0; day <= 32; day++) {
+                    String expected = dateFormat.format(dateFormat.parse(year + "-" + month + "-" + day));
+                    assertEquals(expected, PmidToDate.deriveDate(Integer.toString(year), Integer.toString(month), Integer.toString(day), null, null,
+                            null, null), year + "-" + month + "-" + day);
+                }
+    }
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.meshXmlToDatabase;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MeshHierarchyIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void answersQueriesOnSubtreeIntervals() {
+        Map<String, String> treeNumberToUi = new HashMap<>();
+        treeNumberToUi.put("A01", "D1");
+        treeNumberToUi.put("A01.100", "D2");
+        treeNumberToUi.put("A01.100.200", "D3");
+        treeNumberToUi.put("A01.300", "D4");
+        // A01.100 is a prefix of A01.1000, but A01.1000 is not its child:
+        treeNumberToUi.put("A01.1000", "D6");
+        treeNumberToUi.put("B02", "D5");
+        treeNumberToUi.put("B02.100", "D3");
+        MeshHierarchyIndex index = MeshHierarchyIndex.build(treeNumberToUi);
+
+        assertEquals(List.of("D1", "D2", "D3", "D4", "D6"), index.getDescendants("D1"));
+        assertEquals(List.of("D2", "D3"), index.getDescendants("D2"));
+        assertEquals(List.of("D3"), index.getDescendants("D3"));
+        assertEquals(List.of("D3", "D5"), index.getDescendants("D5"));
+        assertEquals(List.of("D1", "D2", "D3", "D5"), index.getAncestors("D3"));
+        assertEquals(List.of("D1", "D6"), index.getAncestors("D6"));
+        assertTrue(index.isDescendantOf("D3", "D5"));
+        assertTrue(index.isDescendantOf("D3", "D3"));
+        assertFalse(index.isDescendantOf("D6", "D2"));
+        assertFalse(index.isDescendantOf("D1", "D3"));
+
+        assertFalse(index.contains("D9"));
+        assertEquals(List.of(), index.getDescendants("D9"));
+        assertEquals(List.of(), index.getAncestors("D9"));
+        assertFalse(index.isDescendantOf("D9", "D1"));
+    }
+
+    @Test
+    void matchesNaiveClosureOfRandomTreeAfterWriteAndLoad() {
+        Random random = new Random(42);
+        Map<String, String> treeNumberToUi = new HashMap<>();
+        String[] treeNumbers = new String[2000];
+        for (int i = 0; i < treeNumbers.length; i++) {
+            if (i < 5 || random.nextInt(10) == 0)
+                treeNumbers[i] = "R" + i;
+            else
+                treeNumbers[i] = treeNumbers[random.nextInt(i)] + "." + i;
+            treeNumberToUi.put(treeNumbers[i], "D" + random.nextInt(300));
+        }
+        Map<String, TreeSet<String>> uiToAncestors = new HashMap<>();
+        Map<String, TreeSet<String>> uiToDescendants = new HashMap<>();
+        for (String treeNumber : treeNumbers) {
+            String ui = treeNumberToUi.get(treeNumber);
+            for (String ancestor : ancestorTreeNumbers(treeNumber)) {
+                String ancestorUi = treeNumberToUi.get(ancestor);
+                uiToAncestors.computeIfAbsent(ui, k -> new TreeSet<>()).add(ancestorUi);
+                uiToDescendants.computeIfAbsent(ancestorUi, k -> new TreeSet<>()).add(ui);
+            }
+        }
+
+        Path path = tempDir.resolve("mesh.idx");
+        MeshHierarchyIndex.build(treeNumberToUi).write(path);
+        MeshHierarchyIndex index = MeshHierarchyIndex.load(path);
+
+        for (String ui : uiToAncestors.keySet()) {
+            assertTrue(index.contains(ui));
+            assertEquals(new ArrayList<>(uiToAncestors.get(ui)), index.getAncestors(ui), "Ancestors of " + ui);
+            assertEquals(new ArrayList<>(uiToDescendants.get(ui)), index.getDescendants(ui), "Descendants of " + ui);
+        }
+        for (int i = 0; i < 2000; i++) {
+            String descendant = "D" + random.nextInt(300);
+            String ancestor = "D" + random.nextInt(300);
+            boolean expected = uiToAncestors.containsKey(descendant) && uiToAncestors.get(descendant).contains(ancestor);
+            assertEquals(expected, index.isDescendantOf(descendant, ancestor), descendant + " under " + ancestor);
+        }
+    }
+
+    private static List<String> ancestorTreeNumbers(String treeNumber) {
+        List<String> ancestors = new ArrayList<>();
+        ancestors.add(treeNumber);
+        for (int i = treeNumber.lastIndexOf('.'); i != -1; i = treeNumber.lastIndexOf('.', i - 1))
+            ancestors.add(treeNumber.substring(0, i));
+        return ancestors;
+    }
+}
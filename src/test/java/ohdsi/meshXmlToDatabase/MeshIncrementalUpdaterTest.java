@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.meshXmlToDatabase;
+
+import ohdsi.databases.ConnectionWrapper;
+import ohdsi.databases.DbType;
+import ohdsi.utilities.files.Row;
+import ohdsi.utilities.files.RowWriter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MeshIncrementalUpdaterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ConnectionWrapper connectionWrapper;
+
+    /**
+     * Each table has a run column that is not written by the updater. Its default is raised before every run, so it shows which rows a run wrote.
+     */
+    @BeforeEach
+    void createTables() {
+        connectionWrapper = new ConnectionWrapper(tempDir.resolve("db").toString(), "sa", "", DbType.H2);
+        connectionWrapper.execute("CREATE TABLE mesh_term (ui VARCHAR(10), name VARCHAR(255), supplement INT, run INT)");
+        connectionWrapper.execute("CREATE TABLE mesh_relationship (ui_1 VARCHAR(10), ui_2 VARCHAR(10), relationship_id VARCHAR(50), run INT)");
+        connectionWrapper.execute("CREATE TABLE mesh_ancestor (ancestor_ui VARCHAR(10), descendant_ui VARCHAR(10), max_distance INT, min_distance INT, run INT)");
+    }
+
+    @AfterEach
+    void close() {
+        connectionWrapper.close();
+    }
+
+    @Test
+    void writesOnlyTheDifferences() {
+        MeshIncrementalUpdater first = startRun(1);
+        writeTerm(first, "D1", "Alpha", "0");
+        writeTerm(first, "D2", "Beta", "0");
+        writeTerm(first, "D3", "Gamma", "0");
+        writeTerm(first, "C1", "O'Brien", "1");
+        writeRelationship(first, "D2", "D1", "Pharmacological action");
+        writeRelationship(first, "C1", "D1", "Maps to");
+        writeRelationship(first, "C1", "D2", "Maps to");
+        writeAncestor(first, "D1", "D2", 1, 1);
+        writeAncestor(first, "D1", "D3", 2, 1);
+        writeAncestor(first, "D2", "D3", 1, 1);
+        first.apply();
+
+        assertEquals(Map.of("D1", "Alpha 0 1", "D2", "Beta 0 1", "D3", "Gamma 0 1", "C1", "O'Brien 1 1"), getTerms());
+
+        MeshIncrementalUpdater second = startRun(2);
+        writeTerm(second, "D1", "Alpha", "0");
+        // Changed name:
+        writeTerm(second, "D2", "Beta 2", "0");
+        // D3 is removed, D4 is added:
+        writeTerm(second, "D4", "Delta", "0");
+        // Same relationships in a different order:
+        writeTerm(second, "C1", "O'Brien", "1");
+        writeRelationship(second, "C1", "D2", "Maps to");
+        writeRelationship(second, "C1", "D1", "Maps to");
+        writeRelationship(second, "D2", "D1", "Pharmacological action");
+        writeAncestor(second, "D1", "D2", 1, 1);
+        writeAncestor(second, "D1", "D3", 3, 1);
+        writeAncestor(second, "D1", "D4", 1, 1);
+        second.apply();
+
+        assertEquals(Map.of("D1", "Alpha 0 1", "D2", "Beta 2 0 2", "D4", "Delta 0 2", "C1", "O'Brien 1 1"), getTerms());
+        assertEquals(Map.of("C1>D1", "Maps to 1", "C1>D2", "Maps to 1", "D2>D1", "Pharmacological action 2"), getRows(
+                "SELECT ui_1 || '>' || ui_2 AS k, relationship_id || ' ' || run AS v FROM mesh_relationship"));
+        assertEquals(Map.of("D1>D2", "1-1 1", "D1>D3", "3-1 1", "D1>D4", "1-1 2"), getRows(
+                "SELECT ancestor_ui || '>' || descendant_ui AS k, max_distance || '-' || min_distance || ' ' || run AS v FROM mesh_ancestor"));
+    }
+
+    @Test
+    void changedRelationshipReplacesTerm() {
+        MeshIncrementalUpdater first = startRun(1);
+        writeTerm(first, "D1", "Alpha", "0");
+        writeTerm(first, "D2", "Beta", "0");
+        writeRelationship(first, "D2", "D1", "Pharmacological action");
+        first.apply();
+
+        MeshIncrementalUpdater second = startRun(2);
+        writeTerm(second, "D1", "Alpha", "0");
+        writeTerm(second, "D2", "Beta", "0");
+        writeRelationship(second, "D2", "D1", "Maps to");
+        second.apply();
+
+        assertEquals(Map.of("D1", "Alpha 0 1", "D2", "Beta 0 2"), getTerms());
+        assertEquals(Map.of("D2>D1", "Maps to 2"), getRows("SELECT ui_1 || '>' || ui_2 AS k, relationship_id || ' ' || run AS v FROM mesh_relationship"));
+    }
+
+    @Test
+    void leavesEmptyValuesNull() {
+        MeshIncrementalUpdater updater = startRun(1);
+        writeTerm(updater, "D1", "", "0");
+        updater.apply();
+
+        assertEquals(Map.of("D1", "1"), getRows("SELECT ui AS k, COUNT(*) AS v FROM mesh_term WHERE name IS NULL GROUP BY ui"));
+
+        // The NULL name is read back as empty, so the term is unchanged on the next run:
+        MeshIncrementalUpdater second = startRun(2);
+        writeTerm(second, "D1", "", "0");
+        second.apply();
+
+        assertEquals(Map.of("D1", " 0 1"), getTerms());
+    }
+
+    @Test
+    void appliesDifferencesLargerThanOneFlush() {
+        MeshIncrementalUpdater first = startRun(1);
+        for (int i = 0; i < 1500; i++)
+            writeTerm(first, "D" + i, "Term " + i, "0");
+        first.apply();
+
+        MeshIncrementalUpdater second = startRun(2);
+        for (int i = 0; i < 1500; i++)
+            writeTerm(second, "D" + i, i % 2 == 0 ? "Term " + i : "Changed " + i, "0");
+        second.apply();
+
+        assertEquals(Map.of("1", "750", "2", "750"), getRows("SELECT run AS k, COUNT(*) AS v FROM mesh_term GROUP BY run"));
+        assertEquals(Map.of("2", "750"), getRows("SELECT run AS k, COUNT(*) AS v FROM mesh_term WHERE name LIKE 'Changed %' GROUP BY run"));
+    }
+
+    private MeshIncrementalUpdater startRun(int run) {
+        for (String table : MeshIncrementalUpdater.TABLES)
+            connectionWrapper.execute("ALTER TABLE " + table + " ALTER COLUMN run SET DEFAULT " + run);
+        return new MeshIncrementalUpdater(connectionWrapper);
+    }
+
+    private Map<String, String> getTerms() {
+        return getRows("SELECT ui AS k, COALESCE(name, '') || ' ' || supplement || ' ' || run AS v FROM mesh_term");
+    }
+
+    private Map<String, String> getRows(String sql) {
+        Map<String, String> rows = new TreeMap<>();
+        for (Row row : connectionWrapper.query(sql))
+            rows.put(row.get("k"), row.get("v"));
+        return rows;
+    }
+
+    private static void writeTerm(MeshIncrementalUpdater updater, String ui, String name, String supplement) {
+        Row row = new Row();
+        row.add("ui", ui);
+        row.add("name", name);
+        row.add("supplement", supplement);
+        write(updater.getTermWriter(), row);
+    }
+
+    private static void writeRelationship(MeshIncrementalUpdater updater, String ui1, String ui2, String relationshipId) {
+        Row row = new Row();
+        row.add("ui_1", ui1);
+        row.add("ui_2", ui2);
+        row.add("relationship_id", relationshipId);
+        write(updater.getRelationshipWriter(), row);
+    }
+
+    private static void writeAncestor(MeshIncrementalUpdater updater, String ancestorUi, String descendantUi, int maxDistance, int minDistance) {
+        Row row = new Row();
+        row.add("ancestor_ui", ancestorUi);
+        row.add("descendant_ui", descendantUi);
+        row.add("max_distance", maxDistance);
+        row.add("min_distance", minDistance);
+        write(updater.getAncestorWriter(), row);
+    }
+
+    private static void write(RowWriter writer, Row row) {
+        writer.write(row);
+        writer.close();
+    }
+}
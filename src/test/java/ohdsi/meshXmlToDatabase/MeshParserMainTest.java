@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright 2014 Observational Health Data Sciences and Informatics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package ohdsi.meshXmlToDatabase;
+
+import ohdsi.utilities.files.Row;
+import ohdsi.utilities.files.RowWriter;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MeshParserMainTest {
+
+    @Test
+    void mergesDistancesAcrossTreeNumbersAndBranches() {
+        Map<String, String> treeNumberToUi = new HashMap<>();
+        treeNumberToUi.put("A01", "D1");
+        treeNumberToUi.put("A01.100", "D2");
+        treeNumberToUi.put("A01.300", "D4");
+        treeNumberToUi.put("B02", "D5");
+        // D3 is found at several depths, in two branches:
+        treeNumberToUi.put("A01.100.200", "D3");
+        treeNumberToUi.put("A01.300.100", "D3");
+        treeNumberToUi.put("A01.400", "D3");
+        treeNumberToUi.put("B02.100", "D3");
+
+        Map<String, String> pairToDistances = generate(treeNumberToUi);
+
+        Map<String, String> expected = new HashMap<>();
+        for (String ui : new String[]{"D1", "D2", "D3", "D4", "D5"})
+            expected.put(ui + ">" + ui, "0-0");
+        expected.put("D1>D2", "1-1");
+        expected.put("D1>D3", "1-2");
+        expected.put("D1>D4", "1-1");
+        expected.put("D2>D3", "1-1");
+        expected.put("D4>D3", "1-1");
+        expected.put("D5>D3", "1-1");
+        assertEquals(expected, pairToDistances);
+    }
+
+    @Test
+    void matchesNaiveClosureOfRandomTree() {
+        Random random = new Random(42);
+        Map<String, String> treeNumberToUi = new LinkedHashMap<>();
+        String[] treeNumbers = new String[3000];
+        for (int i = 0; i < treeNumbers.length; i++) {
+            if (i < 5 || random.nextInt(10) == 0)
+                treeNumbers[i] = "R" + i;
+            else
+                treeNumbers[i] = treeNumbers[random.nextInt(i)] + "." + i;
+            treeNumberToUi.put(treeNumbers[i], "D" + random.nextInt(400));
+        }
+
+        Map<String, int[]> expected = new HashMap<>();
+        for (String descendant : treeNumbers) {
+            String ancestor = descendant;
+            for (int distance = 0; ; distance++) {
+                String pair = treeNumberToUi.get(ancestor) + ">" + treeNumberToUi.get(descendant);
+                expected.merge(pair, new int[]{distance, distance}, (a, b) -> new int[]{Math.min(a[0], b[0]), Math.max(a[1], b[1])});
+                if (!ancestor.contains("."))
+                    break;
+                ancestor = ancestor.substring(0, ancestor.lastIndexOf('.'));
+            }
+        }
+        Map<String, String> expectedStrings = new HashMap<>();
+        expected.forEach((pair, distances) -> expectedStrings.put(pair, distances[0] + "-" + distances[1]));
+
+        assertEquals(expectedStrings, generate(treeNumberToUi));
+    }
+
+    /**
+     * @return the min-max distances per ancestor>descendant pair
+     */
+    private static Map<String, String> generate(Map<String, String> treeNumberToUi) {
+        Map<String, String> pairToDistances = new HashMap<>();
+        MeshParserMain.generateAncestorTable(treeNumberToUi, new RowWriter() {
+            @Override
+            public void write(Row row) {
+                String previous = pairToDistances.put(row.get("ancestor_ui") + ">" + row.get("descendant_ui"),
+                        row.get("min_distance") + "-" + row.get("max_distance"));
+                assertNull(previous, "Duplicate pair");
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        return pairToDistances;
+    }
+}